@@ -57,6 +57,24 @@ public class DependencyStructure implements Serializable {
 		return hashcode;
 	}
 
+	private long fingerprint = 0;
+
+	/**
+	 * A 64-bit hash, which is consistent with equals(). It's order-independent over the unresolved dependencies, and
+	 * cached, so it's only computed once per structure.
+	 */
+	public long getFingerprint() {
+		if (fingerprint == 0) {
+			long result = Util.mix64(coindexation.hashCode()) + (isConjunction ? 1 : 0);
+			for (final UnresolvedDependency dep : unresolvedDependencies) {
+				result += Util.mix64(dep.hashCode() + 0x9e3779b97f4a7c15L);
+			}
+			// Keep 0 for 'not computed'.
+			fingerprint = result == 0 ? 1 : result;
+		}
+		return fingerprint;
+	}
+
 	@Override
 	public boolean equals(final Object obj) {
 		final DependencyStructure other = (DependencyStructure) obj;
@@ -69,6 +87,18 @@ public class DependencyStructure implements Serializable {
 		return getArbitraryHead() + " " + unresolvedDependencies + " " + coindexation;
 	}
 
+	private int maxID = -1;
+
+	/**
+	 * The highest ID used in the coindexation. Cached, because it's needed every time this structure is combined.
+	 */
+	private int getMaxID() {
+		if (maxID == -1) {
+			maxID = coindexation.getMaxID();
+		}
+		return maxID;
+	}
+
 	public Coindexation getCoindexation() {
 		return coindexation;
 	}
@@ -99,16 +129,19 @@ public class DependencyStructure implements Serializable {
 
 	/**
 	 * Applies this dependency structure to another, adding any new dependencies to @newResolvedDependencies
+	 *
+	 * The IDs in the other structure are shifted past the IDs in this one, rather than copying it with new IDs.
 	 */
-	public DependencyStructure apply(DependencyStructure other, final List<UnlabelledDependency> newResolvedDependencies) {
-		other = other.standardizeApart(coindexation.getMaxID() + 1);
-
+	public DependencyStructure apply(final DependencyStructure other,
+			final List<UnlabelledDependency> newResolvedDependencies) {
+		final int otherIDOffset = getMaxID();
 		final UnifyingSubstitution substitution = UnifyingSubstitution.make(coindexation.right, other.coindexation,
-				isConjunction);
+				otherIDOffset, isConjunction);
 
 		final Set<UnresolvedDependency> newUnresolvedDependencies = new HashSet<>();
-		final Coindexation newCoindexation = substitution.applyTo(coindexation.left);
-		updateResolvedDependencies(other, substitution, newUnresolvedDependencies, newResolvedDependencies);
+		final Coindexation newCoindexation = substitution.applyTo(coindexation.left, 0);
+		updateResolvedDependencies(other, otherIDOffset, substitution, newUnresolvedDependencies,
+				newResolvedDependencies);
 
 		final Set<UnresolvedDependency> normalizedUnresolvedDependencies = new HashSet<>(
 				newUnresolvedDependencies.size());
@@ -126,20 +159,21 @@ public class DependencyStructure implements Serializable {
 	/**
 	 * Applies this dependency structure with another, adding any new dependencies to @newResolvedDependencies
 	 */
-	public DependencyStructure compose(DependencyStructure other,
+	public DependencyStructure compose(final DependencyStructure other,
 			final List<UnlabelledDependency> newResolvedDependencies) {
-
-		other = other.standardizeApart(coindexation.getMaxID() + 1);
+		final int otherIDOffset = getMaxID();
 		final UnifyingSubstitution substitution = UnifyingSubstitution.make(coindexation.right,
-				other.coindexation.left, false);
+				other.coindexation.left, otherIDOffset, false);
 
 		final Set<UnresolvedDependency> newUnresolvedDependencies = new HashSet<>();
-		updateResolvedDependencies(other, substitution, newUnresolvedDependencies, newResolvedDependencies);
+		updateResolvedDependencies(other, otherIDOffset, substitution, newUnresolvedDependencies,
+				newResolvedDependencies);
 
-		final Coindexation newCoindexationLeft = substitution.applyTo(coindexation.left);
-		final Coindexation newCoindexationRight = substitution.applyTo(other.coindexation.right);
+		final Coindexation newCoindexationLeft = substitution.applyTo(coindexation.left, 0);
+		final Coindexation newCoindexationRight = substitution.applyTo(other.coindexation.right, otherIDOffset);
 		final boolean headIsLeft = !coindexation.left.idOrHead.equals(coindexation.right.idOrHead);
-		final Coindexation.IDorHead idOrHead = substitution.applyTo(headIsLeft ? coindexation : other.coindexation).idOrHead;
+		final Coindexation.IDorHead idOrHead = headIsLeft ? substitution.applyTo(coindexation.idOrHead, 0)
+				: substitution.applyTo(other.coindexation.idOrHead, otherIDOffset);
 
 		final Set<UnresolvedDependency> normalizedUnresolvedDependencies = new HashSet<>(
 				newUnresolvedDependencies.size());
@@ -153,28 +187,28 @@ public class DependencyStructure implements Serializable {
 	/**
 	 * Generalized forward composition (to degree 2)
 	 */
-	public DependencyStructure compose2(DependencyStructure other,
+	public DependencyStructure compose2(final DependencyStructure other,
 			final List<UnlabelledDependency> newResolvedDependencies) {
 		// A/B (B/C)/D ---> (A/C)/D
-		other = other.standardizeApart(coindexation.getMaxID() + 1);
-
+		final int otherIDOffset = getMaxID();
 		final UnifyingSubstitution substitution = UnifyingSubstitution.make(coindexation.right,
-				other.coindexation.left.left, false);
+				other.coindexation.left.left, otherIDOffset, false);
 
 		final Set<UnresolvedDependency> newUnresolvedDependencies = new HashSet<>();
 
-		updateResolvedDependencies(other, substitution, newUnresolvedDependencies, newResolvedDependencies);
+		updateResolvedDependencies(other, otherIDOffset, substitution, newUnresolvedDependencies,
+				newResolvedDependencies);
 		final Set<UnresolvedDependency> normalizedUnresolvedDependencies = new HashSet<>(
 				newUnresolvedDependencies.size());
 		final Coindexation normalizedCoindexation;
 		if (coindexation.isModifier()) {
 			// X/X X/Y/Z
-			normalizedCoindexation = normalize(substitution.applyTo(other.coindexation), newUnresolvedDependencies,
-					normalizedUnresolvedDependencies, newResolvedDependencies, 1);
+			normalizedCoindexation = normalize(substitution.applyTo(other.coindexation, otherIDOffset),
+					newUnresolvedDependencies, normalizedUnresolvedDependencies, newResolvedDependencies, 1);
 		} else {
 			// S\NP/NP NP/PP/PP
-			final Coindexation leftWithSubstitution = substitution.applyTo(coindexation);
-			final Coindexation rightWithSubstitution = substitution.applyTo(other.coindexation);
+			final Coindexation leftWithSubstitution = substitution.applyTo(coindexation, 0);
+			final Coindexation rightWithSubstitution = substitution.applyTo(other.coindexation, otherIDOffset);
 			normalizedCoindexation = normalize(new Coindexation(new Coindexation(leftWithSubstitution.left,
 					rightWithSubstitution.left.right, leftWithSubstitution.idOrHead), rightWithSubstitution.right,
 					leftWithSubstitution.idOrHead), newUnresolvedDependencies, normalizedUnresolvedDependencies,
@@ -184,17 +218,6 @@ public class DependencyStructure implements Serializable {
 		return new DependencyStructure(normalizedCoindexation, normalizedUnresolvedDependencies);
 	}
 
-	/**
-	 * Returns an equivalent dependency structure, where all the IDs are >=@minID
-	 */
-	private DependencyStructure standardizeApart(final int minID) {
-		final Set<UnresolvedDependency> normalizedUnresolvedDependencies = new HashSet<>(unresolvedDependencies.size());
-		final Coindexation newArgument = normalize(coindexation, unresolvedDependencies,
-				normalizedUnresolvedDependencies, Collections.emptyList(), minID);
-
-		return new DependencyStructure(newArgument, normalizedUnresolvedDependencies);
-	}
-
 	private static void normalize(final Collection<UnresolvedDependency> unresolvedDependencies,
 			final IntIntHashMap substitutions, final Set<UnresolvedDependency> newUnresolvedDependencies,
 			final Collection<UnlabelledDependency> newResolvedDependencies) {
@@ -247,11 +270,11 @@ public class DependencyStructure implements Serializable {
 		return unresolvedDependencies;
 	}
 
-	private static void updateDependencies(final DependencyStructure other, final UnifyingSubstitution substitution,
-			final Set<UnresolvedDependency> newUnresolvedDependencies,
+	private static void updateDependencies(final DependencyStructure other, final int idOffset,
+			final UnifyingSubstitution substitution, final Set<UnresolvedDependency> newUnresolvedDependencies,
 			final List<UnlabelledDependency> newResolvedDependencies) {
 		for (final UnresolvedDependency dep : other.unresolvedDependencies) {
-			final Dependency updated = substitution.applyTo(dep);
+			final Dependency updated = substitution.applyTo(dep, idOffset);
 
 			if (updated.isResolved()) {
 				newResolvedDependencies.add((UnlabelledDependency) updated);
@@ -261,11 +284,11 @@ public class DependencyStructure implements Serializable {
 		}
 	}
 
-	private void updateResolvedDependencies(final DependencyStructure other, final UnifyingSubstitution substitution,
-			final Set<UnresolvedDependency> newUnresolvedDependencies,
+	private void updateResolvedDependencies(final DependencyStructure other, final int otherIDOffset,
+			final UnifyingSubstitution substitution, final Set<UnresolvedDependency> newUnresolvedDependencies,
 			final List<UnlabelledDependency> newResolvedDependencies) {
 
-		updateDependencies(this, substitution, newUnresolvedDependencies, newResolvedDependencies);
-		updateDependencies(other, substitution, newUnresolvedDependencies, newResolvedDependencies);
+		updateDependencies(this, 0, substitution, newUnresolvedDependencies, newResolvedDependencies);
+		updateDependencies(other, otherIDOffset, substitution, newUnresolvedDependencies, newResolvedDependencies);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,157 @@
+package edu.uw.easysrl.dependencies;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.uw.easysrl.main.EasySRL.InputFormat;
+import edu.uw.easysrl.main.InputReader;
+import edu.uw.easysrl.main.InputReader.InputToParser;
+import edu.uw.easysrl.main.InputReader.InputWord;
+import edu.uw.easysrl.syntax.grammar.Combinator;
+import edu.uw.easysrl.syntax.grammar.Combinator.RuleProduction;
+import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
+import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode.SyntaxTreeNodeBinary;
+import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode.SyntaxTreeNodeLabelling;
+import edu.uw.easysrl.syntax.model.SupertagFactoredModel.SupertagFactoredModelFactory;
+import edu.uw.easysrl.syntax.parser.AbstractParser;
+import edu.uw.easysrl.syntax.parser.Agenda;
+import edu.uw.easysrl.syntax.parser.ParserAStar;
+import edu.uw.easysrl.syntax.parser.ParserListener;
+import edu.uw.easysrl.syntax.tagger.Tagger;
+import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings;
+import edu.uw.easysrl.util.Util.Scored;
+
+/**
+ * Measures the throughput of combining DependencyStructures, on the combinations that build the chart entries when
+ * ParserAStar parses a file with a real model. The combinations are recorded while parsing, and then only the
+ * Combinator.apply() calls are replayed and timed.
+ *
+ * The checksum depends on the coindexations and resolved dependencies that are produced, so it can be used to check
+ * that changes to the implementation give the same results.
+ *
+ * Usage: DependencyStructureBenchmark model_folder input_file [rounds] [input_format]
+ */
+public class DependencyStructureBenchmark {
+
+	public static void main(final String[] args) throws IOException {
+		final File modelFolder = new File(args[0]);
+		final File inputFile = new File(args[1]);
+		final int rounds = args.length > 2 ? Integer.valueOf(args[2]) : 20;
+		final InputFormat inputFormat = args.length > 3 ? InputFormat.valueOf(args[3].toUpperCase())
+				: InputFormat.TOKENIZED;
+
+		final CombinationRecorder recorder = new CombinationRecorder();
+		final ParserAStar.Builder builder = new ParserAStar.Builder(modelFolder).listeners(Collections
+				.singletonList(recorder));
+		if (!new File(modelFolder, "weights").exists()) {
+			// The supertag-factored model only builds dependency structures for N-best parsing, unless it's asked to.
+			builder.modelFactory(new SupertagFactoredModelFactory(Tagger.make(modelFolder,
+					builder.getSupertaggerBeam(), 50, null), TaggerEmbeddings.loadCategories(new File(modelFolder,
+					"categories")), true));
+		}
+
+		final AbstractParser parser = builder.build();
+		for (final InputToParser input : InputReader.make(inputFormat).readFile(inputFile)) {
+			parser.doParsing(input);
+		}
+
+		final List<Combination> workload = recorder.workload;
+		System.out.println(workload.size() + " combinations");
+
+		// Run twice, so that the second round is measured after JIT compilation.
+		for (int round = 0; round < 2; round++) {
+			long checksum = 0;
+			final long start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				for (final Combination combination : workload) {
+					final List<UnlabelledDependency> resolved = new ArrayList<>();
+					final DependencyStructure result = combination.combinator.apply(combination.left,
+							combination.right, resolved);
+					if (i == 0) {
+						checksum += checksum(result, resolved);
+					}
+				}
+			}
+
+			final double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format("Round %d: %12.0f combinations/sec (checksum %d)", round + 1,
+					rounds * workload.size() / seconds, checksum));
+		}
+	}
+
+	private static class Combination {
+		private final Combinator combinator;
+		private final DependencyStructure left;
+		private final DependencyStructure right;
+
+		private Combination(final Combinator combinator, final DependencyStructure left,
+				final DependencyStructure right) {
+			this.combinator = combinator;
+			this.left = left;
+			this.right = right;
+		}
+	}
+
+	/**
+	 * Records the combination that built each binary chart entry. ParserAStar calls handleChartInsertion() while the
+	 * new entry is still at the head of the agenda.
+	 */
+	private static class CombinationRecorder implements ParserListener {
+		private final List<Combination> workload = new ArrayList<>();
+
+		@Override
+		public void handleNewSentence(final List<InputWord> words) {
+		}
+
+		@Override
+		public boolean handleChartInsertion(final Agenda agenda) {
+			SyntaxTreeNode node = agenda.peek().getParse();
+			// The joint model wraps binary nodes to label their dependencies.
+			while (node instanceof SyntaxTreeNodeLabelling) {
+				node = node.getChild(0);
+			}
+
+			if (node instanceof SyntaxTreeNodeBinary) {
+				final SyntaxTreeNode left = node.getChild(0);
+				final SyntaxTreeNode right = node.getChild(1);
+				workload.add(new Combination(findCombinator(node, left, right), left.getDependencyStructure(), right
+						.getDependencyStructure()));
+			}
+
+			return true;
+		}
+
+		private static Combinator findCombinator(final SyntaxTreeNode node, final SyntaxTreeNode left,
+				final SyntaxTreeNode right) {
+			for (final RuleProduction rule : Combinator.getRules(left.getCategory(), right.getCategory(),
+					Combinator.STANDARD_COMBINATORS)) {
+				if (rule.getRuleType() == node.getRuleType() && rule.getCategory() == node.getCategory()) {
+					return rule.getCombinator();
+				}
+			}
+
+			throw new IllegalStateException("No combinator for: " + left.getCategory() + " " + right.getCategory()
+					+ " --> " + node.getCategory());
+		}
+
+		@Override
+		public void handleSearchCompletion(final List<Scored<SyntaxTreeNode>> result, final Agenda agenda,
+				final int chartSize) {
+		}
+	}
+
+	/**
+	 * A hash of the result that doesn't depend on the iteration order of any sets.
+	 */
+	private static long checksum(final DependencyStructure result, final List<UnlabelledDependency> resolved) {
+		final List<String> dependencies = new ArrayList<>();
+		for (final UnlabelledDependency dep : resolved) {
+			dependencies.add(dep.toString());
+		}
+		Collections.sort(dependencies);
+		return 31L * result.getCoindexation().toString().hashCode() + dependencies.toString().hashCode();
+	}
+}
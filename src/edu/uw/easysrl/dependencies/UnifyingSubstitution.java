@@ -4,42 +4,46 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+
+import com.carrotsearch.hppc.IntObjectHashMap;
 
 import edu.uw.easysrl.syntax.grammar.Preposition;
 
 /**
  * Used to unify two dependency structures
  *
+ * Rather than copying the right structure with new IDs (standardizing it apart) before unifying, its IDs are shifted
+ * by an offset whenever they're looked up, so that they can't clash with the IDs in the left structure. Substitutions
+ * are keyed by primitive ints, to avoid boxing.
  */
 class UnifyingSubstitution {
-	private final Map<Integer, Coindexation.IDorHead> substitutions;
-	private final Map<Integer, Preposition> prepositionSubstitutions;
+	private final IntObjectHashMap<Coindexation.IDorHead> substitutions;
+	private final IntObjectHashMap<Preposition> prepositionSubstitutions;
 	private final Map<List<Integer>, Coindexation.IDorHead> headSubstitutions;
-
-	private UnifyingSubstitution(final Map<Integer, Coindexation.IDorHead> substitutions,
-			final Map<Integer, Preposition> prepositionSubstitutions,
-			final Map<List<Integer>, Coindexation.IDorHead> headSubstitutions) {
-		super();
-		this.substitutions = substitutions;
-		this.prepositionSubstitutions = prepositionSubstitutions;
-		this.headSubstitutions = headSubstitutions;
+	/**
+	 * Preposition substitution for leaves that are heads, rather than IDs.
+	 */
+	private Preposition headPreposition;
+	private int freshID = 0;
+
+	private UnifyingSubstitution() {
+		this.substitutions = new IntObjectHashMap<>();
+		this.prepositionSubstitutions = new IntObjectHashMap<>();
+		this.headSubstitutions = new HashMap<>();
 	}
 
-	static UnifyingSubstitution make(final Coindexation left, final Coindexation right, final boolean isConjunction) {
-		final Map<Integer, Coindexation.IDorHead> substitutions = new HashMap<>();
-		final Map<Integer, Preposition> prepositionSubstitutions = new HashMap<>();
-		final Map<List<Integer>, Coindexation.IDorHead> headSubstitutions = new HashMap<>();
-
-		make(left, right, substitutions, prepositionSubstitutions, headSubstitutions, new AtomicInteger(0),
-				isConjunction);
-		return new UnifyingSubstitution(substitutions, prepositionSubstitutions, headSubstitutions);
+	/**
+	 * Unifies two coindexations. IDs in the right coindexation are shifted by rightIDOffset, which must be the same
+	 * offset that's used when applying the substitution to parts of the right structure.
+	 */
+	static UnifyingSubstitution make(final Coindexation left, final Coindexation right, final int rightIDOffset,
+			final boolean isConjunction) {
+		final UnifyingSubstitution result = new UnifyingSubstitution();
+		result.unify(left, right, rightIDOffset, isConjunction);
+		return result;
 	}
 
-	private static void make(final Coindexation left, final Coindexation right,
-			final Map<Integer, Coindexation.IDorHead> substitutions,
-			final Map<Integer, Preposition> prepositionSubstitutions,
-			final Map<List<Integer>, Coindexation.IDorHead> headSubstitutions, final AtomicInteger freshID,
+	private void unify(final Coindexation left, final Coindexation right, final int rightIDOffset,
 			final boolean isConjunction) {
 		final Preposition newPreposition;
 
@@ -52,25 +56,28 @@ class UnifyingSubstitution {
 		}
 
 		if (!right.idOrHead.isHead()) {
+			final int rightID = right.idOrHead.id + rightIDOffset;
 			if (!left.idOrHead.isHead()) {
 				// See if we already have an entry for either ID.
-				Coindexation.IDorHead id = substitutions.getOrDefault(left.idOrHead.id,
-						substitutions.get(right.idOrHead.id));
+				Coindexation.IDorHead id = substitutions.get(left.idOrHead.id);
+				if (id == null) {
+					id = substitutions.get(rightID);
+				}
 
 				if (id == null) {
 					// No entry for either ID. Make a fresh ID.
-					id = new Coindexation.IDorHead(freshID.decrementAndGet());
+					id = new Coindexation.IDorHead(--freshID);
 				}
 
 				// Make both unify to the same ID.
 				substitutions.put(left.idOrHead.id, id);
-				substitutions.put(right.idOrHead.id, id);
+				substitutions.put(rightID, id);
 				prepositionSubstitutions.put(left.idOrHead.id, newPreposition);
 			} else {
 				// Update the right ID to point to the left Head
-				substitutions.put(right.idOrHead.id, left.idOrHead);
+				substitutions.put(rightID, left.idOrHead);
 			}
-			prepositionSubstitutions.put(right.idOrHead.id, newPreposition);
+			prepositionSubstitutions.put(rightID, newPreposition);
 		} else {
 			if (isConjunction) {
 				// Allow coordinated phrases to have multiple heads.
@@ -81,34 +88,40 @@ class UnifyingSubstitution {
 					headSubstitutions.put(left.idOrHead.head, new Coindexation.IDorHead(coordinatedHead));
 				}
 				headSubstitutions.put(right.idOrHead.head, new Coindexation.IDorHead(coordinatedHead));
-			} else {
+			} else if (!left.idOrHead.isHead()) {
 				// Update the left ID to point to the right Head
 				substitutions.put(left.idOrHead.id, right.idOrHead);
 			}
 
-			prepositionSubstitutions.put(left.idOrHead.id, newPreposition);
+			if (!left.idOrHead.isHead()) {
+				prepositionSubstitutions.put(left.idOrHead.id, newPreposition);
+			} else {
+				headPreposition = newPreposition;
+			}
 		}
 
 		// Recurse on the children.
 		if (left.left != null) {
-			make(left.left, right.left, substitutions, prepositionSubstitutions, headSubstitutions, freshID,
-					isConjunction);
+			unify(left.left, right.left, rightIDOffset, isConjunction);
 		}
 		if (left.right != null) {
-			make(left.right, right.right, substitutions, prepositionSubstitutions, headSubstitutions, freshID,
-					isConjunction);
+			unify(left.right, right.right, rightIDOffset, isConjunction);
 		}
 	}
 
-	Dependency applyTo(UnresolvedDependency dep) {
-		final Preposition prep = prepositionSubstitutions.get(dep.argumentID);
+	/**
+	 * Applies the substitution to a dependency from a structure whose IDs are shifted by idOffset.
+	 */
+	Dependency applyTo(UnresolvedDependency dep, final int idOffset) {
+		final int id = dep.argumentID + idOffset;
+		final Preposition prep = prepositionSubstitutions.get(id);
 		if (prep != null) {
 			dep = dep.setPreposition(prep);
 		}
 
-		final Coindexation.IDorHead result = substitutions.get(dep.argumentID);
+		final Coindexation.IDorHead result = substitutions.get(id);
 		if (result == null) {
-			return dep;
+			return idOffset == 0 ? dep : dep.resolve(id);
 		} else if (result.isHead()) {
 			return dep.resolve(result.head);
 		} else {
@@ -116,21 +129,36 @@ class UnifyingSubstitution {
 		}
 	}
 
-	Coindexation applyTo(final Coindexation coindexation) {
+	/**
+	 * Applies the substitution to (part of) a coindexation whose IDs are shifted by idOffset.
+	 */
+	Coindexation applyTo(final Coindexation coindexation, final int idOffset) {
 		if (coindexation == null) {
 			return null;
 		}
-		Coindexation.IDorHead newID = coindexation.idOrHead.isHead() ? headSubstitutions
-				.get(coindexation.idOrHead.head) : substitutions.get(coindexation.idOrHead.id);
 
-				if (newID == null) {
-					newID = coindexation.idOrHead;
-				}
-				if (coindexation.left == null && coindexation.right == null) {
-					final Preposition newPrep = prepositionSubstitutions.get(coindexation.idOrHead.id);
-					return new Coindexation(newID, newPrep != null ? newPrep : coindexation.preposition);
-				} else {
-					return new Coindexation(applyTo(coindexation.left), applyTo(coindexation.right), newID);
-				}
+		final Coindexation.IDorHead newID = applyTo(coindexation.idOrHead, idOffset);
+		if (coindexation.left == null && coindexation.right == null) {
+			final Preposition newPrep = coindexation.idOrHead.isHead() ? headPreposition : prepositionSubstitutions
+					.get(coindexation.idOrHead.id + idOffset);
+			return new Coindexation(newID, newPrep != null ? newPrep : coindexation.preposition);
+		} else {
+			return new Coindexation(applyTo(coindexation.left, idOffset), applyTo(coindexation.right, idOffset), newID);
+		}
+	}
+
+	Coindexation.IDorHead applyTo(final Coindexation.IDorHead idOrHead, final int idOffset) {
+		if (idOrHead.isHead()) {
+			final Coindexation.IDorHead result = headSubstitutions.get(idOrHead.head);
+			return result == null ? idOrHead : result;
+		}
+
+		final int id = idOrHead.id + idOffset;
+		final Coindexation.IDorHead result = substitutions.get(id);
+		if (result != null) {
+			return result;
+		}
+
+		return idOffset == 0 ? idOrHead : new Coindexation.IDorHead(id);
 	}
-}
\ No newline at end of file
+}
@@ -1,7 +1,6 @@
 package edu.uw.easysrl.dependencies;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
@@ -58,22 +57,26 @@ public class UnlabelledDependency extends Dependency {
 	}
 
 	public Collection<ResolvedDependency> setLabel(final SRLLabel label) {
+		final List<ResolvedDependency> result = new ArrayList<>(argument.size());
+		addLabelledDependencies(label, result);
+		return result;
+	}
 
-		List<ResolvedDependency> result;
+	/**
+	 * Like setLabel(), but adds the labelled dependencies to an existing collection.
+	 */
+	public void addLabelledDependencies(final SRLLabel label, final Collection<ResolvedDependency> result) {
 		// Handle the inconsistent annotation of
 		// "I cooked and ate fish and chips"
 		if (label.isCoreArgument() || label == SRLFrame.NONE) {
-			result = Arrays.asList(new ResolvedDependency(getHead(), super.getCategory(), getArgNumber(), argument.get(0),
-					label, super.getPreposition()));
+			result.add(new ResolvedDependency(getHead(), super.getCategory(), getArgNumber(), argument.get(0), label,
+					super.getPreposition()));
 		} else {
-			result = new ArrayList<>(argument.size());
 			for (final int arg : argument) {
 				result.add(new ResolvedDependency(getHead(), super.getCategory(), getArgNumber(), arg, label,
 						super.getPreposition()));
 			}
 		}
-
-		return result;
 	}
 
 	public int getFirstArgumentIndex() {
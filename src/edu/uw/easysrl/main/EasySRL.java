@@ -5,7 +5,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.text.DecimalFormat;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.InputMismatchException;
 import java.util.Iterator;
 import java.util.List;
@@ -14,6 +17,7 @@ import java.util.Optional;
 import java.util.Scanner;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -34,11 +38,13 @@ import edu.uw.easysrl.syntax.model.SRLFactoredModel.SRLFactoredModelFactory;
 import edu.uw.easysrl.syntax.model.SupertagFactoredModel.SupertagFactoredModelFactory;
 import edu.uw.easysrl.syntax.model.feature.Feature.FeatureKey;
 import edu.uw.easysrl.syntax.model.feature.FeatureSet;
+import edu.uw.easysrl.syntax.parser.AllocationMetrics;
 import edu.uw.easysrl.syntax.parser.Parser;
 import edu.uw.easysrl.syntax.parser.ParserAStar;
 import edu.uw.easysrl.syntax.parser.ParserBeamSearch;
 import edu.uw.easysrl.syntax.parser.ParserBuilder;
 import edu.uw.easysrl.syntax.parser.ParserCKY;
+import edu.uw.easysrl.syntax.parser.ParserListener;
 import edu.uw.easysrl.syntax.parser.SRLParser;
 import edu.uw.easysrl.syntax.parser.SRLParser.BackoffSRLParser;
 import edu.uw.easysrl.syntax.parser.SRLParser.CCGandSRLparse;
@@ -48,6 +54,7 @@ import edu.uw.easysrl.syntax.parser.SRLParser.SemanticParser;
 import edu.uw.easysrl.syntax.tagger.POSTagger;
 import edu.uw.easysrl.syntax.tagger.Tagger;
 import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings;
+import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings.Precision;
 import edu.uw.easysrl.syntax.training.PipelineTrainer.LabelClassifier;
 import edu.uw.easysrl.syntax.training.Training;
 import edu.uw.easysrl.util.Util;
@@ -79,6 +86,15 @@ public class EasySRL {
 		@Option(shortName = "n", defaultValue = "1", description = "(Optional) Number of parses to return per sentence. Values >1 are only supported for A* parsing. Defaults to 1.")
 		int getNbest();
 
+		@Option(description = "(Optional) For N-best parsing, find the 1-best parse and then extract the N-best lazily from all the derivations in the chart, rather than keeping N entries per chart cell. Only used by the supertag-factored pipeline model, and ignored by the joint model.")
+		boolean getLazyNbest();
+
+		@Option(defaultValue = "0", description = "(Optional) Number of (window position, word) products that the supertagger caches, which speeds up tagging for about 3.5KB each (20000 is a reasonable size). Scores may differ in the last few bits. Only used by the supertag-factored pipeline model. Defaults to 0 (no cache).")
+		int getTaggerProjectionCache();
+
+		@Option(defaultValue = "double", description = "(Optional) How the supertagger stores its weights: one of \"double\", \"float\" (half the memory) or \"int8\" (an eighth, with some loss of accuracy). Only used by the supertag-factored pipeline model. Defaults to double.")
+		String getTaggerPrecision();
+
 		@Option(shortName = "r", defaultValue = { "S[dcl]", "S[wq]", "S[q]", "S[b]\\NP", "NP" }, description = "(Optional) List of valid categories for the root node of the parse. Defaults to: S[dcl] S[wq] S[q] NP S[b]\\NP")
 		List<Category> getRootCategories();
 
@@ -88,6 +104,12 @@ public class EasySRL {
 		@Option(shortName = "w", defaultValue = "1.0", description = "Use a specified supertagger weight, instead of the pretrained value.")
 		double getSupertaggerWeight();
 
+		@Option(description = "(Optional) Print the mean and maximum number of bytes the parser allocates per sentence.")
+		boolean getAllocationMetrics();
+
+		@Option(shortName = "t", defaultValue = "1", description = "(Optional) Number of threads to use for parsing. Output is printed in the same order as the input. Defaults to 1.")
+		int getThreads();
+
 		@Option(helpRequest = true, description = "Display this message", shortName = "h")
 		boolean getHelp();
 
@@ -128,17 +150,23 @@ public class EasySRL {
 			final OutputFormat outputFormat = OutputFormat.valueOf(commandLineOptions.getOutputFormat().toUpperCase());
 			final ParsePrinter printer = outputFormat.printer;
 
+			final AllocationMetrics allocationMetrics = commandLineOptions.getAllocationMetrics() ? new AllocationMetrics()
+					: null;
+			final List<ParserListener> listeners = allocationMetrics == null ? Collections.emptyList() : Arrays
+					.asList(allocationMetrics);
+
 			final SRLParser parser2;
 			if (pipelineFolder.exists()) {
 				// Joint model
 				final POSTagger posTagger = POSTagger.getStanfordTagger(new File(pipelineFolder, "posTagger"));
 				final PipelineSRLParser pipeline = makePipelineParser(pipelineFolder, commandLineOptions, 0.000001,
-						printer.outputsDependencies());
-				parser2 = new BackoffSRLParser(new JointSRLParser(getParserBuilder(commandLineOptions).build(),
-						posTagger), pipeline);
+						printer.outputsDependencies(), listeners);
+				parser2 = new BackoffSRLParser(new JointSRLParser(getParserBuilder(commandLineOptions).listeners(
+						listeners).build(), posTagger), pipeline);
 			} else {
 				// Pipeline
-				parser2 = makePipelineParser(modelFolder, commandLineOptions, 0.000001, printer.outputsDependencies());
+				parser2 = makePipelineParser(modelFolder, commandLineOptions, 0.000001, printer.outputsDependencies(),
+						listeners);
 			}
 
 			final SRLParser parser;
@@ -174,13 +202,19 @@ public class EasySRL {
 
 			final Stopwatch timer = Stopwatch.createStarted();
 			final AtomicInteger parsedSentences = new AtomicInteger();
-			final ExecutorService executorService = Executors.newFixedThreadPool(1// commandLineOptions.getThreads()
-					);
+			final int numThreads = Math.max(1, commandLineOptions.getThreads());
+			final ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
 
 			final BufferedWriter sysout = new BufferedWriter(new OutputStreamWriter(System.out));
 
+			// Limits the number of sentences that have been read but not yet printed, so that memory stays bounded if
+			// the input arrives faster than we can parse it.
+			final Semaphore pendingSentences = new Semaphore(MAX_PENDING_SENTENCES_PER_THREAD * numThreads);
+			final OrderedOutput orderedOutput = new OrderedOutput(sysout, readingFromStdin, pendingSentences);
+
 			int id = 0;
-			while (inputLines.hasNext()) {
+			// Stop reading if the output can't be written.
+			while (inputLines.hasNext() && orderedOutput.getError() == null) {
 				// Read each sentence, either from STDIN or a parse.
 				final String line = inputLines instanceof Scanner ? ((Scanner) inputLines).nextLine().trim()
 						: inputLines.next();
@@ -189,27 +223,19 @@ public class EasySRL {
 					final int id2 = id;
 
 					// Make a new ExecutorService job for each sentence to parse.
+					pendingSentences.acquire();
 					executorService.execute(new Runnable() {
 						@Override
 						public void run() {
-
-							final List<CCGandSRLparse> parses = parser.parseTokens(reader.readInput(line)
-									.getInputWords());
-							final String output = printer.printJointParses(parses, id2);
-							parsedSentences.getAndIncrement();
-							synchronized (printer) {
-								try {
-									// It's a bit faster to buffer output than use
-									// System.out.println() directly.
-									sysout.write(output);
-									sysout.newLine();
-
-									if (readingFromStdin) {
-										sysout.flush();
-									}
-								} catch (final IOException e) {
-									throw new RuntimeException(e);
-								}
+							String output = null;
+							try {
+								final List<CCGandSRLparse> parses = parser.parseTokens(reader.readInput(line)
+										.getInputWords());
+								output = printer.printJointParses(parses, id2);
+								parsedSentences.getAndIncrement();
+							} finally {
+								// Always hand the sentence back, so that a failure doesn't stall later output.
+								orderedOutput.write(id2, output);
 							}
 						}
 					});
@@ -217,6 +243,9 @@ public class EasySRL {
 			}
 			executorService.shutdown();
 			executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+			if (orderedOutput.getError() != null) {
+				throw orderedOutput.getError();
+			}
 			sysout.close();
 
 			final DecimalFormat twoDP = new DecimalFormat("#.##");
@@ -225,6 +254,9 @@ public class EasySRL {
 			System.err.println("Speed: "
 					+ twoDP.format(1000.0 * parsedSentences.get() / timer.elapsed(TimeUnit.MILLISECONDS))
 					+ " sentences per second");
+			if (allocationMetrics != null) {
+				System.err.println(allocationMetrics);
+			}
 
 		} catch (final ArgumentValidationException e) {
 			System.err.println(e.getMessage());
@@ -232,6 +264,72 @@ public class EasySRL {
 		}
 	}
 
+	/**
+	 * Number of sentences per thread that can be waiting to be parsed or printed.
+	 */
+	private final static int MAX_PENDING_SENTENCES_PER_THREAD = 4;
+
+	/**
+	 * Re-orders parser output, so that sentences are printed in the order they were read, whichever order the
+	 * threads finish them in. Sentence IDs are consecutive, starting from 1.
+	 */
+	private static class OrderedOutput {
+		private final BufferedWriter out;
+		private final boolean flushEachSentence;
+		private final Semaphore pendingSentences;
+		private final Map<Integer, String> idToOutput = new HashMap<>();
+		private int nextID = 1;
+
+		/**
+		 * The first error writing the output, if any. After an error, nothing more is written.
+		 */
+		private volatile IOException error;
+
+		private OrderedOutput(final BufferedWriter out, final boolean flushEachSentence,
+				final Semaphore pendingSentences) {
+			this.out = out;
+			this.flushEachSentence = flushEachSentence;
+			this.pendingSentences = pendingSentences;
+		}
+
+		/**
+		 * Records the output for a sentence, and prints everything that is now ready. A null output means the
+		 * sentence failed, and is skipped. Errors are recorded (see {@link #getError()}) rather than thrown, because
+		 * this is called from the parsing threads.
+		 */
+		synchronized void write(final int id, final String output) {
+			idToOutput.put(id, output);
+			while (idToOutput.containsKey(nextID)) {
+				final String ready = idToOutput.remove(nextID);
+				try {
+					if (ready != null && error == null) {
+						// It's a bit faster to buffer output than use System.out.println() directly.
+						out.write(ready);
+						out.newLine();
+					}
+				} catch (final IOException e) {
+					error = e;
+				} finally {
+					// Always move on, so that the reading thread isn't left waiting for a permit.
+					nextID++;
+					pendingSentences.release();
+				}
+			}
+
+			if (flushEachSentence && error == null) {
+				try {
+					out.flush();
+				} catch (final IOException e) {
+					error = e;
+				}
+			}
+		}
+
+		IOException getError() {
+			return error;
+		}
+	}
+
 	private static ParserBuilder<?> getParserBuilder(final CommandLineArguments o) {
 		final ParserBuilder<? extends ParserBuilder<?>> result;
 		if (o.getParsingAlgorithm().equals("astar")) {
@@ -240,6 +338,7 @@ public class EasySRL {
 			throw new IllegalArgumentException("Unknown parsing algorithm: " + o.getParsingAlgorithm());
 		}
 
+		// Lazy N-best isn't supported by the joint model, so --lazyNbest only applies to the pipeline parser.
 		return result.maximumSentenceLength(o.getMaxLength()).nBest(o.getNbest())
 				.validRootCategories(o.getRootCategories()).supertaggerBeam(o.getSupertaggerbeam())
 				.supertaggerWeight(o.getSupertaggerWeight());
@@ -247,7 +346,7 @@ public class EasySRL {
 
 	private static PipelineSRLParser makePipelineParser(final File folder,
 			final CommandLineArguments commandLineOptions, final double supertaggerBeam,
-			final boolean outputDependencies) throws IOException {
+			final boolean outputDependencies, final List<ParserListener> listeners) throws IOException {
 		final POSTagger posTagger = POSTagger.getStanfordTagger(new File(folder, "posTagger"));
 		final File labelClassifier = new File(folder, "labelClassifier");
 		final LabelClassifier classifier = labelClassifier.exists() && outputDependencies ? Util
@@ -255,6 +354,9 @@ public class EasySRL {
 
 				return new PipelineSRLParser(new ParserAStar.Builder(folder).maxChartSize(100000)
 				.supertaggerBeam(supertaggerBeam).nBest(commandLineOptions.getNbest())
+				.lazyNbest(commandLineOptions.getLazyNbest()).listeners(listeners)
+				.taggerProjectionCacheSize(commandLineOptions.getTaggerProjectionCache())
+				.taggerPrecision(Precision.valueOf(commandLineOptions.getTaggerPrecision().toUpperCase()))
 				.maximumSentenceLength(commandLineOptions.getMaxLength()).build(), classifier, posTagger);
 	}
 
@@ -362,7 +464,8 @@ public class EasySRL {
 
 		} else {
 			final Tagger tagger = loadSupertagger ? Tagger.make(modelFolder, commandLineOptions.getSupertaggerbeam(),
-					50, cutoffs) : null;
+					50, cutoffs, commandLineOptions.getTaggerProjectionCache(),
+					Precision.valueOf(commandLineOptions.getTaggerPrecision().toUpperCase())) : null;
 
 			modelFactory = new SupertagFactoredModelFactory(tagger, lexicalCategories,
 					commandLineOptions.getNbest() > 1);
@@ -0,0 +1,92 @@
+package edu.uw.easysrl.syntax.grammar;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Table.Cell;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.uw.easysrl.syntax.grammar.Combinator.RuleProduction;
+
+/**
+ * Immutable lookup table of the binary rule productions for pairs of categories, indexed by Category IDs. The table is
+ * built up-front from the pairs in the SeenRules file, so it can be shared between threads without locking.
+ *
+ * Pairs that aren't in the table (e.g. if unseen rules are allowed) are computed on demand, and cached in a concurrent
+ * map.
+ */
+public class BinaryRuleTable {
+	private final Collection<Combinator> combinators;
+
+	/**
+	 * Indexed by the ID of the left category, then the ID of the right category. Rows are null for categories that
+	 * never occur on the left, and are only as long as the largest right category ID they contain.
+	 */
+	private final List<RuleProduction>[][] table;
+
+	/**
+	 * Rules for pairs that aren't in the table, keyed by both IDs packed into a long.
+	 */
+	private final ConcurrentHashMap<Long, List<RuleProduction>> unseenPairs = new ConcurrentHashMap<>();
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BinaryRuleTable(final SeenRules seenRules, final Collection<Combinator> combinators) {
+		this.combinators = ImmutableList.copyOf(combinators);
+
+		final Collection<Cell<Category, Category, List<RuleProduction>>> seenPairs = seenRules.ruleTable().cellSet();
+		int maxLeftID = -1;
+		for (final Cell<Category, Category, List<RuleProduction>> entry : seenPairs) {
+			maxLeftID = Math.max(maxLeftID, entry.getRowKey().getID());
+		}
+
+		final int[] maxRightID = new int[maxLeftID + 1];
+		for (final Cell<Category, Category, List<RuleProduction>> entry : seenPairs) {
+			final int leftID = entry.getRowKey().getID();
+			maxRightID[leftID] = Math.max(maxRightID[leftID], entry.getColumnKey().getID());
+		}
+
+		table = new List[maxLeftID + 1][];
+		for (final Cell<Category, Category, List<RuleProduction>> entry : seenPairs) {
+			final int leftID = entry.getRowKey().getID();
+			if (table[leftID] == null) {
+				table[leftID] = new List[maxRightID[leftID] + 1];
+			}
+
+			table[leftID][entry.getColumnKey().getID()] = computeRules(entry.getRowKey(), entry.getColumnKey());
+		}
+	}
+
+	/**
+	 * Returns the set of binary rule productions between these two categories.
+	 */
+	public List<RuleProduction> getRules(final Category left, final Category right) {
+		final int leftID = left.getID();
+		if (leftID < table.length) {
+			final List<RuleProduction>[] row = table[leftID];
+			final int rightID = right.getID();
+			if (row != null && rightID < row.length && row[rightID] != null) {
+				return row[rightID];
+			}
+		}
+
+		return getUnseenRules(left, right);
+	}
+
+	private List<RuleProduction> getUnseenRules(final Category left, final Category right) {
+		final Long key = ((long) left.getID() << 32) | right.getID();
+		final List<RuleProduction> result = unseenPairs.get(key);
+		if (result != null) {
+			return result;
+		}
+
+		// Racing threads may both compute the rules, but they'll get the same answer.
+		final List<RuleProduction> rules = computeRules(left, right);
+		final List<RuleProduction> existing = unseenPairs.putIfAbsent(key, rules);
+		return existing == null ? rules : existing;
+	}
+
+	private List<RuleProduction> computeRules(final Category left, final Category right) {
+		return ImmutableList.copyOf(Combinator.getRules(left, right, combinators));
+	}
+}
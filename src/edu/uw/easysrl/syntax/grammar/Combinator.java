@@ -25,6 +25,7 @@ import edu.uw.easysrl.semantics.Sentence;
 import edu.uw.easysrl.semantics.Set;
 import edu.uw.easysrl.semantics.Variable;
 import edu.uw.easysrl.syntax.grammar.Category.Slash;
+import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode.SyntaxTreeNodeBinary;
 import edu.uw.easysrl.util.Util;
 
 public abstract class Combinator {
@@ -92,6 +93,26 @@ public abstract class Combinator {
 		public Combinator getCombinator() {
 			return combinator;
 		}
+
+		/**
+		 * Builds the node for applying this rule to a pair of children. If includeDependencies is false, the
+		 * (expensive) dependency structure is not computed.
+		 */
+		public SyntaxTreeNodeBinary apply(final SyntaxTreeNode leftChild, final SyntaxTreeNode rightChild,
+				final boolean includeDependencies) {
+			if (includeDependencies) {
+				// Update all the information for tracking dependencies.
+				final List<UnlabelledDependency> resolvedDependencies = new ArrayList<>();
+				final DependencyStructure newDependencies = combinator.apply(leftChild.getDependencyStructure(),
+						rightChild.getDependencyStructure(), resolvedDependencies);
+
+				return new SyntaxTreeNodeBinary(category, leftChild, rightChild, ruleType, headIsLeft,
+						newDependencies, resolvedDependencies);
+			} else {
+				// If we're not modeling dependencies, we can save a lot of work.
+				return new SyntaxTreeNodeBinary(category, leftChild, rightChild, ruleType, headIsLeft, null, null);
+			}
+		}
 	}
 
 	public abstract boolean headIsLeft(Category left, Category right);
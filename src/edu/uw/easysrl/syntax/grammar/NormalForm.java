@@ -4,9 +4,66 @@ import edu.uw.easysrl.syntax.grammar.Combinator.RuleClass;
 import edu.uw.easysrl.syntax.grammar.Combinator.RuleType;
 
 public class NormalForm {
+	private final static RuleClass[] RULE_CLASSES = RuleClass.values();
+	private final static RuleType[] RULE_TYPES = RuleType.values();
+
+	/**
+	 * Whether each (isPrefixOfSentence, left rule class, right rule class, rule type) is allowed, ignoring the
+	 * categories. Only the modifier scope constraints depend on the categories, so they're checked separately.
+	 */
+	private final static boolean[] allowedIgnoringCategories = makeTable();
+
 	public boolean isOk(final RuleClass leftRuleClass, final RuleClass rightRuleClass, final RuleType ruleType,
 			@SuppressWarnings("unused") final Category leftCategory, final Category rightCategory,
 			final Category result, final boolean isPrefixOfSentence) {
+		if (!allowedIgnoringCategories[getIndex(leftRuleClass, rightRuleClass, ruleType, isPrefixOfSentence)]) {
+			return false;
+		}
+
+		// Scope of modifiers. Technically these are semantically distinct, but our representations aren't smart enough
+		// to notice.
+
+		if (rightRuleClass == RuleClass.B_MOD && ruleType == RuleType.FA && rightCategory.equals(result)) {
+			// This version gives rightward modifiers (e.g. relative clauses) scope over leftward modifiers (e.g.
+			// adjectives).
+			return false;
+		}
+
+		if (rightRuleClass == RuleClass.FC && ruleType == RuleType.FA && rightCategory.equals(result)) {
+			// Rules out: (very (big red)), forcing ((very big) red)
+			return false;
+		}
+
+		return true;
+	}
+
+	private static int getIndex(final RuleClass leftRuleClass, final RuleClass rightRuleClass,
+			final RuleType ruleType, final boolean isPrefixOfSentence) {
+		int result = isPrefixOfSentence ? 1 : 0;
+		result = result * RULE_CLASSES.length + leftRuleClass.ordinal();
+		result = result * RULE_CLASSES.length + rightRuleClass.ordinal();
+		return result * RULE_TYPES.length + ruleType.ordinal();
+	}
+
+	private static boolean[] makeTable() {
+		final boolean[] result = new boolean[2 * RULE_CLASSES.length * RULE_CLASSES.length * RULE_TYPES.length];
+		for (final boolean isPrefixOfSentence : new boolean[] { false, true }) {
+			for (final RuleClass leftRuleClass : RULE_CLASSES) {
+				for (final RuleClass rightRuleClass : RULE_CLASSES) {
+					for (final RuleType ruleType : RULE_TYPES) {
+						final int index = getIndex(leftRuleClass, rightRuleClass, ruleType, isPrefixOfSentence);
+						result[index] = isOkIgnoringCategories(leftRuleClass, rightRuleClass, ruleType,
+								isPrefixOfSentence);
+					}
+				}
+			}
+		}
+
+		return result;
+	}
+
+	private static boolean isOkIgnoringCategories(final RuleClass leftRuleClass, final RuleClass rightRuleClass,
+			final RuleType ruleType, final boolean isPrefixOfSentence) {
 		if ((leftRuleClass == RuleClass.FC || leftRuleClass == RuleClass.GFC)
 				&& (ruleType == RuleType.FA || ruleType == RuleType.FC || ruleType == RuleType.GFC)) {
 			// Eisner normal form constraint.
@@ -103,20 +160,6 @@ public class NormalForm {
 			return false;
 		}
 
-		// Scope of modifiers. Technically these are semantically distinct, but our representations aren't smart enough
-		// to notice.
-
-		if (rightRuleClass == RuleClass.B_MOD && ruleType == RuleType.FA && rightCategory.equals(result)) {
-			// This version gives rightward modifiers (e.g. relative clauses) scope over leftward modifiers (e.g.
-			// adjectives).
-			return false;
-		}
-
-		if (rightRuleClass == RuleClass.FC && ruleType == RuleType.FA && rightCategory.equals(result)) {
-			// Rules out: (very (big red)), forcing ((very big) red)
-			return false;
-		}
-
 		return true;
 	}
 }
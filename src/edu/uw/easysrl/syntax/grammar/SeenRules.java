@@ -2,15 +2,18 @@ package edu.uw.easysrl.syntax.grammar;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Multiset;
 import com.google.common.collect.Multisets;
 import com.google.common.collect.Table;
@@ -58,6 +61,13 @@ public class SeenRules {
 	private final int numberOfSeenCategories;
 	private final Table<Category, Category, List<RuleProduction>> ruleTable;
 
+	/**
+	 * Adjacency lists for the seen pairs, indexed by category ID: the categories that can appear to the right of a
+	 * category, and to the left of it.
+	 */
+	private final List<List<Category>> idToRightCategories;
+	private final List<List<Category>> idToLeftCategories;
+
 	public boolean isSeen(final Category left, final Category right) {
 		if (seen == null) {
 			return true;
@@ -67,6 +77,31 @@ public class SeenRules {
 				.getID()]);
 	}
 
+	/**
+	 * Returns the categories that have been seen combining with the given category on its right. Returns null if all
+	 * combinations are allowed.
+	 */
+	public List<Category> getSeenRightCategories(final Category left) {
+		return getAdjacentCategories(idToRightCategories, left);
+	}
+
+	/**
+	 * Returns the categories that have been seen combining with the given category on its left. Returns null if all
+	 * combinations are allowed.
+	 */
+	public List<Category> getSeenLeftCategories(final Category right) {
+		return getAdjacentCategories(idToLeftCategories, right);
+	}
+
+	private List<Category> getAdjacentCategories(final List<List<Category>> idToAdjacent, final Category category) {
+		if (seen == null) {
+			return null;
+		}
+
+		return category.getID() < numberOfSeenCategories ? idToAdjacent.get(category.getID()) : Collections
+				.emptyList();
+	}
+
 	private Category getCategory(String s) {
 		// Convert CCGbank type-raising S/(S\NP) to S[X]/(S[X]\NP)
 		final Category c = Category.valueOf(s);
@@ -83,10 +118,14 @@ public class SeenRules {
 		if (file == null) {
 			seen = null;
 			numberOfSeenCategories = 0;
+			idToRightCategories = null;
+			idToLeftCategories = null;
 		} else if (!file.exists()) {
 			System.err.println("No 'seenRules' file available for model. Allowing all CCG-legal rules.");
 			seen = null;
 			numberOfSeenCategories = 0;
+			idToRightCategories = null;
+			idToLeftCategories = null;
 		} else {
 			// final Table<Category, Category, List<RuleProduction>> tab = HashBasedTable.create();
 
@@ -138,13 +177,23 @@ public class SeenRules {
 			}
 
 			seen = new boolean[maxID + 1][maxID + 1];
+			final List<List<Category>> rightCategories = new ArrayList<>(maxID + 1);
+			final List<List<Category>> leftCategories = new ArrayList<>(maxID + 1);
+			for (int i = 0; i <= maxID; i++) {
+				rightCategories.add(new ArrayList<>());
+				leftCategories.add(new ArrayList<>());
+			}
 
 			for (final Cell<Category, Category, List<RuleProduction>> entry : ruleTable.cellSet()) {
 				if (!entry.getValue().isEmpty()) {
 					seen[entry.getRowKey().getID()][entry.getColumnKey().getID()] = true;
+					rightCategories.get(entry.getRowKey().getID()).add(entry.getColumnKey());
+					leftCategories.get(entry.getColumnKey().getID()).add(entry.getRowKey());
 				}
 			}
 
+			idToRightCategories = rightCategories.stream().map(ImmutableList::copyOf).collect(Collectors.toList());
+			idToLeftCategories = leftCategories.stream().map(ImmutableList::copyOf).collect(Collectors.toList());
 			numberOfSeenCategories = seen.length;
 		}
 	}
@@ -1,18 +1,31 @@
 package edu.uw.easysrl.syntax.model;
 
-import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.Set;
 
 import edu.uw.easysrl.dependencies.DependencyStructure;
 import edu.uw.easysrl.dependencies.UnlabelledDependency;
 import edu.uw.easysrl.syntax.grammar.Category;
 import edu.uw.easysrl.syntax.grammar.Combinator.RuleClass;
+import edu.uw.easysrl.syntax.grammar.Combinator.RuleProduction;
 import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
+import edu.uw.easysrl.util.Util;
 
 public class AgendaItem implements Comparable<AgendaItem> {
-	final SyntaxTreeNode parse;
+	private SyntaxTreeNode parse;
+
+	/**
+	 * The items this one was built from, if any. Used to build the parse lazily (see {@link #getParse()}), and to hash
+	 * the dependencies incrementally (see {@link #getDependencyHash()}). The right child is null for unary rules.
+	 */
+	private final AgendaItem leftChild;
+	private final AgendaItem rightChild;
+
+	/**
+	 * The binary rule for items that build their parse lazily, or null for other items.
+	 */
+	private final RuleProduction rule;
+
 	private final double insideScore;
 	final double outsideScoreUpperbound;
 	private final double cost;
@@ -21,10 +34,29 @@ public class AgendaItem implements Comparable<AgendaItem> {
 
 	protected final boolean includeDeps;
 
+	/**
+	 * Hash of the dependencies in the parse, computed the first time it's needed.
+	 */
+	private long dependencyHash;
+	private boolean hasDependencyHash = false;
+
 	public AgendaItem(final SyntaxTreeNode node, final double insideScore, final double outsideScoreUpperbound,
 			final int startIndex, final int length, final boolean includeDeps) {
+		this(node, null, null, insideScore, outsideScoreUpperbound, startIndex, length, includeDeps);
+	}
+
+	/**
+	 * Creates an item for a node that was built from the given items. The right child should be null for unary rules,
+	 * or if the node only adds information to the left child's node (e.g. labels for its dependencies).
+	 */
+	public AgendaItem(final SyntaxTreeNode node, final AgendaItem leftChild, final AgendaItem rightChild,
+			final double insideScore, final double outsideScoreUpperbound, final int startIndex, final int length,
+			final boolean includeDeps) {
 		super();
 		this.parse = node;
+		this.leftChild = leftChild;
+		this.rightChild = rightChild;
+		this.rule = null;
 		this.insideScore = insideScore;
 		this.outsideScoreUpperbound = outsideScoreUpperbound;
 		this.cost = insideScore + outsideScoreUpperbound;
@@ -34,6 +66,27 @@ public class AgendaItem implements Comparable<AgendaItem> {
 		this.key = getEquivalenceClassKey2();
 	}
 
+	/**
+	 * Creates an item for a binary rule production, without building the SyntaxTreeNode (or its dependencies). Most
+	 * agenda items are never added to the chart, so this saves a lot of work if the model's score doesn't depend on
+	 * the new node.
+	 */
+	public AgendaItem(final AgendaItem leftChild, final AgendaItem rightChild, final RuleProduction rule,
+			final double insideScore, final double outsideScoreUpperbound, final int startIndex, final int length,
+			final boolean includeDeps) {
+		this.leftChild = leftChild;
+		this.rightChild = rightChild;
+		this.rule = rule;
+		this.insideScore = insideScore;
+		this.outsideScoreUpperbound = outsideScoreUpperbound;
+		this.cost = insideScore + outsideScoreUpperbound;
+		this.startOfSpan = startIndex;
+		this.spanLength = length;
+		this.includeDeps = includeDeps;
+		// Without dependencies, the key is just the category, so it doesn't need the parse.
+		this.key = includeDeps ? null : rule.getCategory();
+	}
+
 	/**
 	 * Comparison function used to order the agenda.
 	 */
@@ -46,10 +99,38 @@ public class AgendaItem implements Comparable<AgendaItem> {
 		return d1 < d2 ? -1 : (d1 > d2 ? 1 : 0);
 	}
 
+	/**
+	 * Returns the parse for this item, building it from the back-pointers if necessary.
+	 */
 	public SyntaxTreeNode getParse() {
+		if (parse == null) {
+			parse = rule.apply(leftChild.getParse(), rightChild.getParse(), includeDeps);
+		}
+
 		return parse;
 	}
 
+	/**
+	 * The item this one was built from, or the left one for binary rules. Null for lexical items.
+	 */
+	public AgendaItem getLeftChild() {
+		return leftChild;
+	}
+
+	/**
+	 * The right item this one was built from, or null if it wasn't built by a binary rule.
+	 */
+	public AgendaItem getRightChild() {
+		return rightChild;
+	}
+
+	/**
+	 * The binary rule that builds this item's parse, if it's built lazily. Otherwise null.
+	 */
+	public RuleProduction getRule() {
+		return rule;
+	}
+
 	public int getStartOfSpan() {
 		return startOfSpan;
 	}
@@ -64,13 +145,61 @@ public class AgendaItem implements Comparable<AgendaItem> {
 
 	public double getOutsideScoreUpperbound() { return outsideScoreUpperbound; }
 
+	/**
+	 * Hashes the parse by XOR-ing together a hash for each of its dependencies, which is used to find equivalent parses
+	 * in N-best parsing. Only the dependencies at this node are hashed: the rest come from the children's hashes, which
+	 * are cached, so hashing doesn't need to walk the whole tree.
+	 */
+	public long getDependencyHash() {
+		if (!hasDependencyHash) {
+			long result = getNodeDependencyHash(getParse());
+			if (leftChild != null) {
+				result = result ^ leftChild.getDependencyHash();
+			}
+			if (rightChild != null) {
+				result = result ^ rightChild.getDependencyHash();
+			}
+
+			dependencyHash = result;
+			hasDependencyHash = true;
+		}
+
+		return dependencyHash;
+	}
+
+	/**
+	 * Hashes the dependencies resolved at the node. Rather than looking up a random number for every possible
+	 * dependency, each one is mixed from its (category, argument number, head, argument), so nothing needs to be
+	 * allocated up front or cached per sentence.
+	 */
+	private static long getNodeDependencyHash(final SyntaxTreeNode node) {
+		long result = 0;
+		final List<UnlabelledDependency> resolvedUnlabelledDependencies = node.getResolvedUnlabelledDependencies();
+		if (resolvedUnlabelledDependencies != null) {
+			for (final UnlabelledDependency dep : resolvedUnlabelledDependencies) {
+				final long predicate = Util.mix64(dep.getCategory().getID() * 31L + dep.getArgNumber());
+				for (final int arg : dep.getArguments()) {
+					if (dep.getHead() != arg) {
+						result = result ^ Util.mix64(predicate ^ ((long) dep.getHead() << 32 | arg));
+					}
+				}
+			}
+		}
+
+		return result;
+	}
+
 	public int getSpanLength() {
 		return spanLength;
 	}
 
-	private final Object key;
+	private Object key;
 
 	public Object getEquivalenceClassKey() {
+		if (key == null) {
+			key = getEquivalenceClassKey2();
+		}
+
 		return key;
 	}
 
@@ -80,6 +209,7 @@ public class AgendaItem implements Comparable<AgendaItem> {
 		// Same unused SRL labels
 		// Same depenency structure
 		// Same rule
+		final SyntaxTreeNode parse = getParse();
 		final RuleClass ruleClass = parse.getRuleClass();
 
 		return includeDeps ? new KeyWithDeps(parse.getCategory(), ruleClass, parse.getDependencyStructure(),
@@ -89,11 +219,17 @@ public class AgendaItem implements Comparable<AgendaItem> {
 				: parse.getCategory();
 	}
 
+	/**
+	 * Key for items that track dependencies. Items are compared by a 64-bit fingerprint of their category, rule class,
+	 * dependency structure and resolved dependencies, so that building a key doesn't need to copy or hash any
+	 * collections. The full comparison is only done when the fingerprints match.
+	 */
 	private static class KeyWithDeps {
 		private final Category category;
 		private final RuleClass rule;
 		private final DependencyStructure deps;
-		private final Set<UnlabelledDependency> unlabelledDependencies;
+		private final List<UnlabelledDependency> unlabelledDependencies;
+		private final long fingerprint;
 
 		public KeyWithDeps(final Category category, final RuleClass ruleClass, final DependencyStructure deps,
 				final List<UnlabelledDependency> unlabelledDependencies) {
@@ -101,24 +237,57 @@ public class AgendaItem implements Comparable<AgendaItem> {
 			this.category = category.withoutAnnotation();
 			this.rule = ruleClass;
 			this.deps = deps;
-			// Turning into a set to lose ordering.
-			this.unlabelledDependencies = new HashSet<>(unlabelledDependencies);
+			this.unlabelledDependencies = unlabelledDependencies;
+
+			long fingerprint = Util.mix64(this.category.getID()) * 31 + rule.ordinal();
+			fingerprint = fingerprint * 31 + (deps == null ? 0 : deps.getFingerprint());
+			// Sum over the dependencies, so that the order doesn't matter.
+			long dependencies = 0;
+			for (int i = 0; i < unlabelledDependencies.size(); i++) {
+				if (indexOf(unlabelledDependencies, unlabelledDependencies.get(i)) == i) {
+					dependencies += Util.mix64(unlabelledDependencies.get(i).hashCode());
+				}
+			}
+			this.fingerprint = Util.mix64(fingerprint + dependencies);
 		}
 
 		@Override
 		public int hashCode() {
-			return Objects.hash(category, deps, rule, unlabelledDependencies);
-
+			return (int) (fingerprint ^ (fingerprint >>> 32));
 		}
 
 		@Override
 		public boolean equals(final Object obj) {
 			final AgendaItem.KeyWithDeps other = (AgendaItem.KeyWithDeps) obj;
-			return Objects.equals(category, other.category) && Objects.equals(deps, other.deps)
-					&& Objects.equals(rule, other.rule)
-					&& Objects.equals(unlabelledDependencies, other.unlabelledDependencies);
+			return fingerprint == other.fingerprint && category == other.category && rule == other.rule
+					&& Objects.equals(deps, other.deps)
+					&& containsAll(unlabelledDependencies, other.unlabelledDependencies)
+					&& containsAll(other.unlabelledDependencies, unlabelledDependencies);
+		}
 
+		/**
+		 * Dependency lists are short, so a linear search is cheaper than building a set.
+		 */
+		private static int indexOf(final List<UnlabelledDependency> dependencies, final UnlabelledDependency dep) {
+			for (int i = 0; i < dependencies.size(); i++) {
+				if (dependencies.get(i).equals(dep)) {
+					return i;
+				}
+			}
+			return -1;
 		}
 
+		/**
+		 * True if every dependency in the first list is also in the second.
+		 */
+		private static boolean containsAll(final List<UnlabelledDependency> dependencies1,
+				final List<UnlabelledDependency> dependencies2) {
+			for (final UnlabelledDependency dep : dependencies1) {
+				if (indexOf(dependencies2, dep) == -1) {
+					return false;
+				}
+			}
+			return true;
+		}
 	}
 }
\ No newline at end of file
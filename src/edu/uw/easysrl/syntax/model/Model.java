@@ -1,15 +1,17 @@
 package edu.uw.easysrl.syntax.model;
 
 import java.util.Collection;
-import java.util.Comparator;
 import java.util.List;
 
 import edu.uw.easysrl.main.InputReader.InputToParser;
 import edu.uw.easysrl.main.InputReader.InputWord;
 import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.grammar.Combinator.RuleProduction;
 import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
 import edu.uw.easysrl.syntax.parser.AbstractParser.UnaryRule;
 import edu.uw.easysrl.syntax.parser.Agenda;
+import edu.uw.easysrl.syntax.parser.ArrayHeapAgenda;
+import edu.uw.easysrl.syntax.parser.BoundedAgenda;
 import edu.uw.easysrl.syntax.parser.PriorityQueueAgenda;
 
 public abstract class Model {
@@ -34,16 +36,54 @@ public abstract class Model {
 		this.outsideScoresUpperBound = new double[sentenceLength + 1][sentenceLength + 1];
 	}
 
-	public Agenda makeAgenda() {
-		return new PriorityQueueAgenda(Comparator.naturalOrder());
+	/**
+	 * Makes an agenda of the given type. The maximum size is only enforced by Agenda.Type.BOUNDED.
+	 */
+	public Agenda makeAgenda(final Agenda.Type type, final int maxSize) {
+		switch (type) {
+		case ARRAY_HEAP:
+			return ArrayHeapAgenda.forCurrentThread();
+		case BOUNDED:
+			return BoundedAgenda.forCurrentThread(maxSize);
+		case PRIORITY_QUEUE:
+		default:
+			return PriorityQueueAgenda.forCurrentThread();
+		}
 	}
 
 	public abstract double getUpperBoundForWord(int index);
 
+	/**
+	 * Whether combineNodes() and unary() can safely be called from several threads at once for the same sentence, e.g.
+	 * to fill CKY chart cells in parallel. Models that lazily cache scores per sentence should return false.
+	 */
+	public boolean isThreadSafe() {
+		return false;
+	}
+
 	public abstract void buildAgenda(Agenda queue, List<InputWord> words);
 
+	/**
+	 * For models that prune lexical categories with an adaptive supertagger beam: widens the beam by one step, and adds
+	 * the newly admitted lexical entries to the agenda. This lets the parser carry on searching with the existing chart
+	 * after a failure, rather than starting again. Returns false if the beam can't be widened any further.
+	 */
+	public boolean widenSupertaggerBeam(final Agenda agenda, final List<InputWord> words) {
+		return false;
+	}
+
 	public abstract AgendaItem combineNodes(AgendaItem leftChild, AgendaItem rightChild, SyntaxTreeNode node);
 
+	/**
+	 * Scores applying a binary rule to two items. Models whose score doesn't depend on the new node can override this
+	 * to return an item that only builds its node when it's needed. By default, the node is built straight away.
+	 */
+	public AgendaItem combineNodes(final AgendaItem leftChild, final AgendaItem rightChild, final RuleProduction rule,
+			final boolean includeDependencies) {
+		return combineNodes(leftChild, rightChild,
+				rule.apply(leftChild.getParse(), rightChild.getParse(), includeDependencies));
+	}
+
 	public abstract AgendaItem unary(AgendaItem child, SyntaxTreeNode result, UnaryRule rule);
 
 	public double getOutsideUpperBound(final int start, final int end) {
@@ -240,9 +240,9 @@ public class OracleDependenciesModel extends Model {
 		}
 
 		final double insideScore = leftChild.getInsideScore() + rightChild.getInsideScore() + score;
-		return new AgendaItem(node, insideScore, leftChild.outsideScoreUpperbound + rightChild.outsideScoreUpperbound
-				- globalUpperBound - expectedDeps, leftChild.getStartOfSpan(), leftChild.getSpanLength()
-				+ rightChild.getSpanLength(), true);
+		return new AgendaItem(node, leftChild, rightChild, insideScore, leftChild.outsideScoreUpperbound
+				+ rightChild.outsideScoreUpperbound - globalUpperBound - expectedDeps, leftChild.getStartOfSpan(),
+				leftChild.getSpanLength() + rightChild.getSpanLength(), true);
 	}
 
 	private boolean expected(final AgendaItem leftChild, final AgendaItem rightChild, final ResolvedDependency dep) {
@@ -271,8 +271,8 @@ public class OracleDependenciesModel extends Model {
 
 	@Override
 	public AgendaItem unary(final AgendaItem child, final SyntaxTreeNode result, final UnaryRule rule) {
-		return new AgendaItem(result, child.getInsideScore() + scoreNode(result), child.outsideScoreUpperbound,
-				child.startOfSpan, child.spanLength, true);
+		return new AgendaItem(result, child, null, child.getInsideScore() + scoreNode(result),
+				child.outsideScoreUpperbound, child.startOfSpan, child.spanLength, true);
 	}
 
 }
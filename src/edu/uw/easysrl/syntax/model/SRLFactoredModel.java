@@ -1,12 +1,19 @@
 package edu.uw.easysrl.syntax.model;
 
-import com.carrotsearch.hppc.ObjectDoubleHashMap;
+import com.carrotsearch.hppc.LongDoubleHashMap;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+import edu.uw.easysrl.dependencies.ResolvedDependency;
 import edu.uw.easysrl.dependencies.SRLFrame.SRLLabel;
 import edu.uw.easysrl.dependencies.UnlabelledDependency;
 import edu.uw.easysrl.main.InputReader.InputToParser;
@@ -17,6 +24,7 @@ import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode.SyntaxTreeNodeLabelling;
 import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode.SyntaxTreeNodeLeaf;
 import edu.uw.easysrl.syntax.model.ExtendedLexicalEntry.ConjunctiveCategoryNode;
 import edu.uw.easysrl.syntax.model.ExtendedLexicalEntry.Forest;
+import edu.uw.easysrl.syntax.model.feature.Feature;
 import edu.uw.easysrl.syntax.model.feature.Feature.BinaryFeature;
 import edu.uw.easysrl.syntax.model.feature.Feature.FeatureKey;
 import edu.uw.easysrl.syntax.model.feature.Feature.RootCategoryFeature;
@@ -33,7 +41,7 @@ public class SRLFactoredModel extends Model {
 	private final Collection<UnaryRuleFeature> unaryRuleFeatures;
 
 	private SRLFactoredModel(final List<ExtendedLexicalEntry> forests,
-			final Collection<UnaryRuleFeature> unaryRuleFeatures, final ObjectDoubleHashMap<FeatureKey> featureToScore,
+			final Collection<UnaryRuleFeature> unaryRuleFeatures, final LongDoubleHashMap featureToScore,
 			final Collection<BinaryFeature> binaryFeatures, final Collection<RootCategoryFeature> rootFeatures,
 			final List<InputWord> sentence) {
 		super(forests.size());
@@ -89,7 +97,7 @@ public class SRLFactoredModel extends Model {
 
 	private final double globalUpperBound;
 	private final List<Double> upperBoundsForWord;
-	private final ObjectDoubleHashMap<FeatureKey> featureToScore;
+	private final LongDoubleHashMap featureToScore;
 	private final Collection<BinaryFeature> binaryFeatures;
 	private final Collection<RootCategoryFeature> rootFeatures;
 	private final List<InputWord> sentence;
@@ -117,37 +125,40 @@ public class SRLFactoredModel extends Model {
 		final double newInsideScore = leftChild.getInsideScore() + rightChild.getInsideScore() + binaryRuleScore
 				+ rootScore;
 
-		final AgendaItem result = new AgendaItem(node, newInsideScore, leftChild.outsideScoreUpperbound
-				+ rightChild.outsideScoreUpperbound - globalUpperBound, leftChild.getStartOfSpan(), length, true);
+		final AgendaItem result = new AgendaItem(node, leftChild, rightChild, newInsideScore,
+				leftChild.outsideScoreUpperbound + rightChild.outsideScoreUpperbound - globalUpperBound,
+				leftChild.getStartOfSpan(), length, true);
 
 		return labelDependencies(result, node);
 	}
 
 	/**
-	 * Creates a new AgendaItem by labelling the dependencies in the old one
+	 * Creates a new AgendaItem by labelling the dependencies in the old one. All the dependencies are labelled in one
+	 * pass, giving a single SyntaxTreeNodeLabelling, rather than one node and AgendaItem per dependency.
 	 */
-	private AgendaItem labelDependencies(AgendaItem result, final SyntaxTreeNode node) {
-
+	private AgendaItem labelDependencies(final AgendaItem result, final SyntaxTreeNode node) {
 		final List<UnlabelledDependency> resolvedUnlabelledDependencies = node.getResolvedUnlabelledDependencies();
-		int i = 0;
-		for (final UnlabelledDependency dep : resolvedUnlabelledDependencies) {
+		if (resolvedUnlabelledDependencies.isEmpty()) {
+			return result;
+		}
 
+		double insideScore = result.getInsideScore();
+		double outsideScoreUpperbound = result.outsideScoreUpperbound;
+		final List<ResolvedDependency> labelled = new ArrayList<>(resolvedUnlabelledDependencies.size());
+		for (final UnlabelledDependency dep : resolvedUnlabelledDependencies) {
 			final ExtendedLexicalEntry forest = forests.get(dep.getHead());
 			final Scored<SRLLabel> scoredLabel = forest.getBestLabels(dep);
 
-			final double newInsideScore = result.getInsideScore() + scoredLabel.getScore();
-
-			final SyntaxTreeNode labelling = new SyntaxTreeNodeLabelling(result.getParse(), dep.setLabel(scoredLabel
-					.getObject()), resolvedUnlabelledDependencies.subList(i + 1, resolvedUnlabelledDependencies.size()));
-
-			result = new AgendaItem(labelling, newInsideScore, result.outsideScoreUpperbound
-					- forest.getLogUnnormalizedViterbiScore(dep.getCategory(), dep.getArgNumber()),
-					result.getStartOfSpan(), result.getSpanLength(), true);
-			i++;
-
+			insideScore = insideScore + scoredLabel.getScore();
+			outsideScoreUpperbound = outsideScoreUpperbound
+					- forest.getLogUnnormalizedViterbiScore(dep.getCategory(), dep.getArgNumber());
+			dep.addLabelledDependencies(scoredLabel.getObject(), labelled);
 		}
 
-		return result;
+		final SyntaxTreeNode labelling = new SyntaxTreeNodeLabelling(result.getParse(), labelled,
+				Collections.emptyList());
+		return new AgendaItem(labelling, result, null, insideScore, outsideScoreUpperbound, result.getStartOfSpan(),
+				result.getSpanLength(), true);
 	}
 
 	double getInsideDependenciesUpperBound(final ExtendedLexicalEntry forest, final Category category,
@@ -166,10 +177,10 @@ public class SRLFactoredModel extends Model {
 					+ child.spanLength, featureToScore);
 		}
 
-		AgendaItem agendaItem = new AgendaItem(result, insideScore, child.outsideScoreUpperbound, child.startOfSpan,
-				child.spanLength, true);
+		AgendaItem agendaItem = new AgendaItem(result, child, null, insideScore, child.outsideScoreUpperbound,
+				child.startOfSpan, child.spanLength, true);
 
-		agendaItem = labelDependencies(agendaItem, agendaItem.parse);
+		agendaItem = labelDependencies(agendaItem, agendaItem.getParse());
 
 		return agendaItem;
 	}
@@ -183,28 +194,67 @@ public class SRLFactoredModel extends Model {
 		private final boolean usingSlotFeatures;
 		private final SlotFeatureCache slotFeatureCache;
 		private final double supertaggingFeatureScore;
-		private final ObjectDoubleHashMap<FeatureKey> featureToScore;
+
+		/**
+		 * Scores indexed by the features' 64-bit hashes, so that scoring doesn't need to allocate FeatureKeys.
+		 */
+		private final LongDoubleHashMap featureToScore;
+		private final int featureHashCollisions;
+
+		/**
+		 * Maximum number of unlexicalized forests to keep in the cache.
+		 */
+		private final static int FOREST_CACHE_SIZE = 50000;
+		private final static int MAX_DEPENDENCY_LENGTH = 50;
+
+		/**
+		 * Unlexicalized forests, shared by all the sentences (and threads) that use this factory. A forest only depends
+		 * on the word and its candidate categories, because the cutoffs dictionary and the feature flags are fixed for
+		 * the factory. Forests aren't modified once they're built, so they can be shared.
+		 */
+		private final LoadingCache<ForestKey, Forest> forestCache = CacheBuilder.newBuilder()
+				.maximumSize(FOREST_CACHE_SIZE).recordStats().build(new CacheLoader<ForestKey, Forest>() {
+					@Override
+					public Forest load(final ForestKey key) {
+						return ExtendedLexicalEntry.makeUnlexicalizedForest(key.word, key.categories,
+								MAX_DEPENDENCY_LENGTH, cutoffsDictionary, usingSlotFeatures, usingDependencyFeatures);
+					}
+				});
 
 		public SRLFactoredModelFactory(final double[] weights, final FeatureSet featureSet,
 				final Collection<Category> lexicalCategories, final CutoffsDictionaryInterface cutoffs,
 				final Map<FeatureKey, Integer> featureToIndex) {
+			this(weights, featureSet, lexicalCategories, cutoffs, featureToIndex, false);
+		}
+
+		/**
+		 * If precomputeSlotFeatures is true, the unlexicalized argument slot scores for all the lexical categories are
+		 * computed up front (in parallel), so that the cache is read-only while parsing.
+		 */
+		public SRLFactoredModelFactory(final double[] weights, final FeatureSet featureSet,
+				final Collection<Category> lexicalCategories, final CutoffsDictionaryInterface cutoffs,
+				final Map<FeatureKey, Integer> featureToIndex, final boolean precomputeSlotFeatures) {
 			this.featureSet = featureSet;
 			this.cutoffsDictionary = cutoffs;
 			this.lexicalCategories = lexicalCategories;
 			this.usingDependencyFeatures = !featureSet.dependencyFeatures.isEmpty();
 			this.usingSlotFeatures = !featureSet.argumentSlotFeatures.isEmpty();
 
-			featureToScore = new ObjectDoubleHashMap<>(featureToIndex.size(), 0.1);
-
-			for (final java.util.Map.Entry<FeatureKey, Integer> entry : featureToIndex.entrySet()) {
-				featureToScore.put(entry.getKey(), weights[entry.getValue()]);
+			featureToScore = new LongDoubleHashMap(featureToIndex.size());
+			featureHashCollisions = Feature.addHashedScores(featureToIndex, weights, featureToScore);
+			if (featureHashCollisions > 0) {
+				System.err.println("Warning: " + featureHashCollisions + " of " + featureToIndex.size()
+						+ " features have colliding hashes");
 			}
 
 			final FeatureKey supertaggingFeatureKey = featureSet.lexicalCategoryFeatures.getDefault();
 			supertaggingFeatureScore = weights[featureToIndex.get(supertaggingFeatureKey)];
-			featureToScore.put(supertaggingFeatureKey, supertaggingFeatureScore);
+			featureToScore.put(supertaggingFeatureKey.getHash64(), supertaggingFeatureScore);
 
 			this.slotFeatureCache = new SlotFeatureCache(featureSet, featureToScore);
+			if (precomputeSlotFeatures) {
+				slotFeatureCache.precompute(lexicalCategories);
+			}
 
 		}
 
@@ -218,9 +268,8 @@ public class SRLFactoredModel extends Model {
 			int wordIndex = 0;
 			for (final InputWord word : sentence) {
 
-				final Forest forest = ExtendedLexicalEntry.makeUnlexicalizedForest(word.word,
-						featureCache.getCategoriesAtIndex(wordIndex), 50, cutoffsDictionary, usingSlotFeatures,
-						usingDependencyFeatures);
+				final Forest forest = forestCache.getUnchecked(new ForestKey(word.word, featureCache
+						.getCategoriesAtIndex(wordIndex)));
 
 				forests.add(new ExtendedLexicalEntry(featureSet, wordIndex, sentence, forest, featureToScore,
 						featureCache));
@@ -242,5 +291,53 @@ public class SRLFactoredModel extends Model {
 			return true;
 		}
 
+		/**
+		 * Hit rate and other statistics for the cache of unlexicalized forests.
+		 */
+		public CacheStats getForestCacheStats() {
+			return forestCache.stats();
+		}
+
+		public long getForestCacheSize() {
+			return forestCache.size();
+		}
+
+		/**
+		 * Number of trained features whose 64-bit hash is the same as a different feature's. These features share a
+		 * score.
+		 */
+		public int getFeatureHashCollisions() {
+			return featureHashCollisions;
+		}
+
+		private static class ForestKey {
+			private final String word;
+			private final List<Category> categories;
+			private final int[] categoryIDs;
+			private final int hashCode;
+
+			private ForestKey(final String word, final Collection<Category> categories) {
+				this.word = word;
+				this.categories = new ArrayList<>(categories);
+				// The order matters, because it determines the order of the nodes in the forest.
+				this.categoryIDs = new int[categories.size()];
+				for (int i = 0; i < categoryIDs.length; i++) {
+					categoryIDs[i] = this.categories.get(i).getID();
+				}
+				this.hashCode = 31 * word.hashCode() + Arrays.hashCode(categoryIDs);
+			}
+
+			@Override
+			public int hashCode() {
+				return hashCode;
+			}
+
+			@Override
+			public boolean equals(final Object obj) {
+				final ForestKey other = (ForestKey) obj;
+				return hashCode == other.hashCode && word.equals(other.word)
+						&& Arrays.equals(categoryIDs, other.categoryIDs);
+			}
+		}
 	}
 }
@@ -8,6 +8,7 @@ import java.util.List;
 import edu.uw.easysrl.main.InputReader.InputToParser;
 import edu.uw.easysrl.main.InputReader.InputWord;
 import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.grammar.Combinator.RuleProduction;
 import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
 import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode.SyntaxTreeNodeLeaf;
 import edu.uw.easysrl.syntax.parser.AbstractParser.UnaryRule;
@@ -20,18 +21,73 @@ public class SupertagFactoredModel extends Model {
 	private final List<List<ScoredCategory>> tagsForWords;
 	private final boolean includeDependencies;
 
+	/**
+	 * Log of the supertagger beams to use, from tightest to widest. Empty if all the tags are used straight away.
+	 */
+	private final double[] logBeams;
+	/**
+	 * Index in logBeams of the current beam.
+	 */
+	private int beamIndex = 0;
+	/**
+	 * For each word, the number of its tags that have been added to the agenda.
+	 */
+	private final int[] tagsAdded;
+
 	public SupertagFactoredModel(final List<List<ScoredCategory>> tagsForWords, final boolean includeDependencies) {
+		this(tagsForWords, includeDependencies, new double[0]);
+	}
+
+	/**
+	 * @param supertaggerBeams
+	 *            Beams to prune the tags with, from tightest to widest. The tags for each word must be sorted by score.
+	 */
+	public SupertagFactoredModel(final List<List<ScoredCategory>> tagsForWords, final boolean includeDependencies,
+			final double[] supertaggerBeams) {
 		super(tagsForWords.size());
 		this.includeDependencies = includeDependencies;
 		this.tagsForWords = tagsForWords;
+		this.logBeams = new double[supertaggerBeams.length];
+		for (int i = 0; i < supertaggerBeams.length; i++) {
+			logBeams[i] = Math.log(supertaggerBeams[i]);
+		}
+		this.tagsAdded = new int[tagsForWords.size()];
 		computeOutsideProbabilities();
 	}
 
 	@Override
 	public void buildAgenda(final Agenda agenda, final List<InputWord> words) {
+		addTagsToAgenda(agenda, words);
+	}
+
+	/**
+	 * Only the tags within the current beam are added. The outside upper bounds only depend on each word's best tag,
+	 * which is always added, so they're still valid when the beam is widened. The chart isn't re-computed when new
+	 * tags are added, though, so the search is only guaranteed to find the best parse at the first beam.
+	 */
+	@Override
+	public boolean widenSupertaggerBeam(final Agenda agenda, final List<InputWord> words) {
+		if (beamIndex + 1 >= logBeams.length) {
+			return false;
+		}
+
+		beamIndex++;
+		addTagsToAgenda(agenda, words);
+		return true;
+	}
+
+	private void addTagsToAgenda(final Agenda agenda, final List<InputWord> words) {
 		for (int i = 0; i < words.size(); i++) {
 			final InputWord word = words.get(i);
-			for (final ScoredCategory cat : tagsForWords.get(i)) {
+			final List<ScoredCategory> tags = tagsForWords.get(i);
+			final double threshold = logBeams.length == 0 || tags.isEmpty() ? Double.NEGATIVE_INFINITY : tags.get(0).getScore()
+					+ logBeams[beamIndex];
+			for (; tagsAdded[i] < tags.size(); tagsAdded[i]++) {
+				final ScoredCategory cat = tags.get(tagsAdded[i]);
+				if (tagsAdded[i] > 0 && cat.getScore() < threshold) {
+					break;
+				}
+
 				agenda.add(new AgendaItem(new SyntaxTreeNodeLeaf(word.word, word.pos, word.ner, cat.getCategory(), i,
 						includeDependencies), cat.getScore(), getOutsideUpperBound(i, i + 1), i, 1, includeDependencies));
 			}
@@ -41,7 +97,24 @@ public class SupertagFactoredModel extends Model {
 	@Override
 	public AgendaItem combineNodes(final AgendaItem leftChild, final AgendaItem rightChild, final SyntaxTreeNode node) {
 		final int length = leftChild.spanLength + rightChild.spanLength;
+		return new AgendaItem(node, leftChild, rightChild, getInsideScore(leftChild, rightChild), getOutsideUpperBound(
+				leftChild.startOfSpan, leftChild.startOfSpan + length), leftChild.startOfSpan, length, includeDependencies);
+
+	}
+
+	/**
+	 * The score only depends on the children, so the new node can be built lazily.
+	 */
+	@Override
+	public AgendaItem combineNodes(final AgendaItem leftChild, final AgendaItem rightChild, final RuleProduction rule,
+			final boolean includeDependencies) {
+		final int length = leftChild.spanLength + rightChild.spanLength;
+		return new AgendaItem(leftChild, rightChild, rule, getInsideScore(leftChild, rightChild),
+				getOutsideUpperBound(leftChild.startOfSpan, leftChild.startOfSpan + length), leftChild.startOfSpan,
+				length, includeDependencies);
+	}
 
+	private double getInsideScore(final AgendaItem leftChild, final AgendaItem rightChild) {
 		// Add a penalty based on length of distance between the heads of the two children.
 		// This implements the 'attach low' heuristic.
 		final int depLength = Math.abs(leftChild.getParse().getHeadIndex() - rightChild.getParse().getHeadIndex());
@@ -52,16 +125,18 @@ public class SupertagFactoredModel extends Model {
 			lengthPenalty = lengthPenalty * 10;
 		}
 
-		return new AgendaItem(node, leftChild.getInsideScore() + rightChild.getInsideScore() - lengthPenalty,
-				getOutsideUpperBound(leftChild.startOfSpan, leftChild.startOfSpan + length), leftChild.startOfSpan,
-				length, includeDependencies);
-
+		return leftChild.getInsideScore() + rightChild.getInsideScore() - lengthPenalty;
 	}
 
 	@Override
 	public AgendaItem unary(final AgendaItem child, final SyntaxTreeNode result, final UnaryRule rule) {
-		return new AgendaItem(result, child.getInsideScore() - 0.1, child.outsideScoreUpperbound, child.startOfSpan,
-				child.spanLength, includeDependencies);
+		return new AgendaItem(result, child, null, child.getInsideScore() - 0.1, child.outsideScoreUpperbound,
+				child.startOfSpan, child.spanLength, includeDependencies);
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return true;
 	}
 
 	@Override
@@ -73,24 +148,36 @@ public class SupertagFactoredModel extends Model {
     	private final Tagger tagger;
     	private final Collection<Category> lexicalCategories;
     	private final boolean includeDependencies;
+		private final double[] supertaggerBeams;
 
 		public SupertagFactoredModelFactory(final Tagger tagger,
                                         	final Collection<Category> lexicalCategories,
                                         	final boolean includeDependencies) {
+			this(tagger, lexicalCategories, includeDependencies, new double[0]);
+		}
+
+		/**
+		 * @param supertaggerBeams
+		 *            Beams for adaptive supertagging, from tightest to widest. The tagger's own beam should be the
+		 *            widest one.
+		 */
+		public SupertagFactoredModelFactory(final Tagger tagger, final Collection<Category> lexicalCategories,
+				final boolean includeDependencies, final double[] supertaggerBeams) {
 			super();
 			this.tagger = tagger;
 			this.lexicalCategories = lexicalCategories;
 			this.includeDependencies = includeDependencies;
+			this.supertaggerBeams = supertaggerBeams;
 		}
 
 		@Override
 		public SupertagFactoredModel make(final InputToParser input) {
       		if (input.isAlreadyTagged()) {
-        		return new SupertagFactoredModel(input.getInputSupertags(), includeDependencies);
+        		return new SupertagFactoredModel(input.getInputSupertags(), includeDependencies, supertaggerBeams);
       		} else {
         		Preconditions.checkNotNull(tagger, "Inputs should be already tagged if no tagger is given.");
         		return new SupertagFactoredModel(tagger.tag(input.getInputWords()),
-                                         includeDependencies);
+                                         includeDependencies, supertaggerBeams);
       		}
 		}
 
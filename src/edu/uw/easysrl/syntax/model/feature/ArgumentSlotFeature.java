@@ -5,7 +5,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
-import com.carrotsearch.hppc.ObjectDoubleHashMap;
+import com.carrotsearch.hppc.LongDoubleHashMap;
 
 import edu.uw.easysrl.dependencies.SRLFrame.SRLLabel;
 import edu.uw.easysrl.lemmatizer.MorphaStemmer;
@@ -32,11 +32,10 @@ public abstract class ArgumentSlotFeature extends Feature {
 		private static final long serialVersionUID = -5087443819141589517L;
 
 		@Override
-		public FeatureKey getFeatureKey(final List<InputWord> words, final int predicateIndex, final SRLLabel role,
+		long writeKey(final KeySink sink, final List<InputWord> words, final int predicateIndex, final SRLLabel role,
 				final Category category, final int argumentNumber, final Preposition preposition) {
-			return hash(super.id, role.hashCode(), preposition.hashCode(),
+			return sink.key(super.id, role.hashCode(), preposition.hashCode(),
 					MorphaStemmer.stemToken(words.get(predicateIndex).word).hashCode());
-
 		}
 
 	};
@@ -49,9 +48,9 @@ public abstract class ArgumentSlotFeature extends Feature {
 		private static final long serialVersionUID = -5087443819141589517L;
 
 		@Override
-		public FeatureKey getFeatureKey(final List<InputWord> words, final int predicateIndex, final SRLLabel role,
+		long writeKey(final KeySink sink, final List<InputWord> words, final int predicateIndex, final SRLLabel role,
 				final Category category, final int argumentNumber, final Preposition preposition) {
-			return hash(super.id, role.hashCode(), category.getArgument(argumentNumber).hashCode());
+			return sink.key(super.id, role.hashCode(), category.getArgument(argumentNumber).hashCode());
 		}
 
 	};
@@ -64,10 +63,9 @@ public abstract class ArgumentSlotFeature extends Feature {
 		private static final long serialVersionUID = -5087443819141589517L;
 
 		@Override
-		public FeatureKey getFeatureKey(final List<InputWord> words, final int predicateIndex, final SRLLabel role,
+		long writeKey(final KeySink sink, final List<InputWord> words, final int predicateIndex, final SRLLabel role,
 				final Category category, final int argumentNumber, final Preposition preposition) {
-			return hash(super.id, role.hashCode(), category.hashCode(), argumentNumber);
-
+			return sink.key(super.id, role.hashCode(), category.hashCode(), argumentNumber);
 		}
 
 	};
@@ -80,10 +78,10 @@ public abstract class ArgumentSlotFeature extends Feature {
 		private static final long serialVersionUID = 4705512175495241740L;
 
 		@Override
-		public FeatureKey getFeatureKey(final List<InputWord> words, final int predicateIndex, final SRLLabel role,
+		long writeKey(final KeySink sink, final List<InputWord> words, final int predicateIndex, final SRLLabel role,
 				final Category category, final int argumentNumber, final Preposition preposition) {
-			return hash(super.id, role.isCoreArgument() ? 13 : 7, words.get(predicateIndex).word.indexOf("-") > -1 ? 13
-					: 7);
+			return sink.key(super.id, role.isCoreArgument() ? 13 : 7,
+					words.get(predicateIndex).word.indexOf("-") > -1 ? 13 : 7);
 		}
 
 	};
@@ -93,9 +91,9 @@ public abstract class ArgumentSlotFeature extends Feature {
 		private static final long serialVersionUID = -5087443819141589517L;
 
 		@Override
-		public FeatureKey getFeatureKey(final List<InputWord> words, final int predicateIndex, final SRLLabel role,
+		long writeKey(final KeySink sink, final List<InputWord> words, final int predicateIndex, final SRLLabel role,
 				final Category category, final int argumentNumber, final Preposition preposition) {
-			return hash(super.id, MorphaStemmer.stemToken(words.get(predicateIndex).word).hashCode(),
+			return sink.key(super.id, MorphaStemmer.stemToken(words.get(predicateIndex).word).hashCode(),
 					makeKey(preposition, argumentNumber, category).hashCode(), role.hashCode());
 		}
 
@@ -109,10 +107,10 @@ public abstract class ArgumentSlotFeature extends Feature {
 		private static final long serialVersionUID = -5087443819141589517L;
 
 		@Override
-		public FeatureKey getFeatureKey(final List<InputWord> words, final int predicateIndex, final SRLLabel role,
+		long writeKey(final KeySink sink, final List<InputWord> words, final int predicateIndex, final SRLLabel role,
 				final Category category, final int argumentNumber, final Preposition preposition) {
-			return hash(super.id, MorphaStemmer.stemToken(words.get(predicateIndex).word).hashCode(), role.hashCode(),
-					category.getArgument(argumentNumber).hashCode());
+			return sink.key(super.id, MorphaStemmer.stemToken(words.get(predicateIndex).word).hashCode(),
+					role.hashCode(), category.getArgument(argumentNumber).hashCode());
 		}
 
 	};
@@ -125,10 +123,10 @@ public abstract class ArgumentSlotFeature extends Feature {
 		private static final long serialVersionUID = -5087443819141589517L;
 
 		@Override
-		public FeatureKey getFeatureKey(final List<InputWord> words, final int predicateIndex, final SRLLabel role,
+		long writeKey(final KeySink sink, final List<InputWord> words, final int predicateIndex, final SRLLabel role,
 				final Category category, final int argumentNumber, final Preposition preposition) {
-			return hash(super.id, MorphaStemmer.stemToken(words.get(predicateIndex).word).hashCode(), role.hashCode(),
-					category.hashCode(), argumentNumber);
+			return sink.key(super.id, MorphaStemmer.stemToken(words.get(predicateIndex).word).hashCode(),
+					role.hashCode(), category.hashCode(), argumentNumber);
 		}
 
 	};
@@ -150,12 +148,12 @@ public abstract class ArgumentSlotFeature extends Feature {
 
 	double getFeatureScore(final List<InputWord> words, final int wordIndex, final SRLLabel role,
 			final Category category, final int argumentNumber, final Preposition preposition,
-			final ObjectDoubleHashMap<FeatureKey> featureToScore) {
-		final FeatureKey featureKey = getFeatureKey(words, wordIndex, role, category, argumentNumber, preposition);
-		final double result = featureToScore.getOrDefault(featureKey, Double.MIN_VALUE);
+			final LongDoubleHashMap featureToScore) {
+		final long featureHash = getFeatureHash(words, wordIndex, role, category, argumentNumber, preposition);
+		final double result = featureToScore.getOrDefault(featureHash, Double.MIN_VALUE);
 		if (result == Double.MIN_VALUE) {
 			if (defaultScore == Double.MIN_VALUE) {
-				defaultScore = featureToScore.getOrDefault(defaultKey, Double.MIN_VALUE);
+				defaultScore = featureToScore.getOrDefault(defaultKey.getHash64(), Double.MIN_VALUE);
 			}
 
 			return defaultScore;
@@ -177,7 +175,25 @@ public abstract class ArgumentSlotFeature extends Feature {
 		return result;
 	}
 
-	public abstract FeatureKey getFeatureKey(List<InputWord> words, int wordIndex, SRLLabel role, Category category,
+	public final FeatureKey getFeatureKey(final List<InputWord> words, final int wordIndex, final SRLLabel role,
+			final Category category, final int argumentNumber, final Preposition preposition) {
+		final KeyBuilder builder = new KeyBuilder();
+		writeKey(builder, words, wordIndex, role, category, argumentNumber, preposition);
+		return builder.getKey();
+	}
+
+	/**
+	 * Same as getFeatureKey(...).getHash64(), but without allocating the key.
+	 */
+	long getFeatureHash(final List<InputWord> words, final int wordIndex, final SRLLabel role,
+			final Category category, final int argumentNumber, final Preposition preposition) {
+		return writeKey(HASHER, words, wordIndex, role, category, argumentNumber, preposition);
+	}
+
+	/**
+	 * Passes the values that identify the feature to the sink, and returns the sink's result.
+	 */
+	abstract long writeKey(KeySink sink, List<InputWord> words, int wordIndex, SRLLabel role, Category category,
 			int argumentNumber, Preposition preposition);
 
 	public boolean isLexicalized() {
@@ -255,10 +271,9 @@ public abstract class ArgumentSlotFeature extends Feature {
 		private static final long serialVersionUID = -5087443819141589517L;
 
 		@Override
-		public FeatureKey getFeatureKey(final List<InputWord> words, final int predicateIndex, final SRLLabel role,
+		long writeKey(final KeySink sink, final List<InputWord> words, final int predicateIndex, final SRLLabel role,
 				final Category category, final int argumentNumber, final Preposition preposition) {
-			return hash(super.id, role.hashCode());
-
+			return sink.key(super.id, role.hashCode());
 		}
 
 	};
@@ -271,9 +286,9 @@ public abstract class ArgumentSlotFeature extends Feature {
 		private static final long serialVersionUID = 2147289965807795425L;
 
 		@Override
-		public FeatureKey getFeatureKey(final List<InputWord> words, final int predicateIndex, final SRLLabel role,
+		long writeKey(final KeySink sink, final List<InputWord> words, final int predicateIndex, final SRLLabel role,
 				final Category category, final int argumentNumber, final Preposition preposition) {
-			return hash(super.id, role.hashCode(), argumentNumber);
+			return sink.key(super.id, role.hashCode(), argumentNumber);
 		}
 
 	};
@@ -286,9 +301,9 @@ public abstract class ArgumentSlotFeature extends Feature {
 		private static final long serialVersionUID = 2147289965807795425L;
 
 		@Override
-		public FeatureKey getFeatureKey(final List<InputWord> words, final int predicateIndex, final SRLLabel role,
+		long writeKey(final KeySink sink, final List<InputWord> words, final int predicateIndex, final SRLLabel role,
 				final Category category, final int argumentNumber, final Preposition preposition) {
-			return hash(super.id, role.hashCode(), argumentNumber, category.getNumberOfArguments());
+			return sink.key(super.id, role.hashCode(), argumentNumber, category.getNumberOfArguments());
 		}
 
 	};
@@ -301,10 +316,9 @@ public abstract class ArgumentSlotFeature extends Feature {
 		private static final long serialVersionUID = -1167453701712568542L;
 
 		@Override
-		public FeatureKey getFeatureKey(final List<InputWord> words, final int wordIndex, final SRLLabel role,
+		long writeKey(final KeySink sink, final List<InputWord> words, final int wordIndex, final SRLLabel role,
 				final Category category, final int argumentNumber, final Preposition preposition) {
-			return hash(super.id, MorphaStemmer.stemToken(words.get(wordIndex).word).hashCode(), role.hashCode());
-
+			return sink.key(super.id, MorphaStemmer.stemToken(words.get(wordIndex).word).hashCode(), role.hashCode());
 		}
 
 	};
@@ -317,9 +331,9 @@ public abstract class ArgumentSlotFeature extends Feature {
 		private static final long serialVersionUID = 2147289965807795425L;
 
 		@Override
-		public FeatureKey getFeatureKey(final List<InputWord> words, final int predicateIndex, final SRLLabel role,
+		long writeKey(final KeySink sink, final List<InputWord> words, final int predicateIndex, final SRLLabel role,
 				final Category category, final int argumentNumber, final Preposition preposition) {
-			return hash(super.id, role.hashCode(), argumentNumber,
+			return sink.key(super.id, role.hashCode(), argumentNumber,
 					MorphaStemmer.stemToken(words.get(predicateIndex).word).hashCode(), category.getNumberOfArguments());
 		}
 
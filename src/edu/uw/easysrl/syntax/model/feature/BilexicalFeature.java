@@ -5,7 +5,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
-import com.carrotsearch.hppc.ObjectDoubleHashMap;
+import com.carrotsearch.hppc.LongDoubleHashMap;
 
 import edu.uw.easysrl.dependencies.SRLFrame.SRLLabel;
 import edu.uw.easysrl.lemmatizer.MorphaStemmer;
@@ -57,14 +57,14 @@ public abstract class BilexicalFeature extends Feature {
 
 	double getFeatureScore(final List<InputWord> words, final SRLLabel role,
 			final int predicateIndex, final int argumentIndex,
-			final ObjectDoubleHashMap<FeatureKey> featureToScore) {
-		final FeatureKey featureKey = getFeatureKey(words, role,
-				predicateIndex, argumentIndex);
-		final double result = featureToScore.getOrDefault(featureKey,
+			final LongDoubleHashMap featureToScore) {
+		final long featureHash = getFeatureHash(words, role, predicateIndex,
+				argumentIndex);
+		final double result = featureToScore.getOrDefault(featureHash,
 				Double.MIN_VALUE);
 		if (result == Double.MIN_VALUE) {
 			if (defaultScore == Double.MIN_VALUE) {
-				defaultScore = featureToScore.get(defaultKey);
+				defaultScore = featureToScore.get(defaultKey.getHash64());
 			}
 
 			return defaultScore;
@@ -72,14 +72,27 @@ public abstract class BilexicalFeature extends Feature {
 		return result;
 	}
 
-	public FeatureKey getFeatureKey(final List<InputWord> words,
+	public final FeatureKey getFeatureKey(final List<InputWord> words,
 			final SRLLabel role, final int predicateIndex,
 			final int argumentIndex) {
+		final KeyBuilder builder = new KeyBuilder();
+		writeKey(builder, words, role, predicateIndex, argumentIndex);
+		return builder.getKey();
+	}
 
-		return getFeatureKey2(words, role, predicateIndex, argumentIndex);
+	/**
+	 * Same as getFeatureKey(...).getHash64(), but without allocating the key.
+	 */
+	long getFeatureHash(final List<InputWord> words, final SRLLabel role,
+			final int predicateIndex, final int argumentIndex) {
+		return writeKey(HASHER, words, role, predicateIndex, argumentIndex);
 	}
 
-	abstract FeatureKey getFeatureKey2(List<InputWord> words, SRLLabel role,
+	/**
+	 * Passes the values that identify the feature to the sink, and returns
+	 * the sink's result.
+	 */
+	abstract long writeKey(KeySink sink, List<InputWord> words, SRLLabel role,
 			int predicateIndex, int argumentIndex);
 
 	boolean isDependentOnPredicateIndex(
@@ -158,10 +171,10 @@ public abstract class BilexicalFeature extends Feature {
 		}
 
 		@Override
-		FeatureKey getFeatureKey2(final List<InputWord> words,
+		long writeKey(final KeySink sink, final List<InputWord> words,
 				final SRLLabel role, final int predicateIndex,
 				final int argumentIndex) {
-			return hash(super.id,
+			return sink.key(super.id,
 					MorphaStemmer.stemToken(words.get(predicateIndex).word)
 							.hashCode(), role.hashCode(), argumentFeature
 							.getValue(words, argumentIndex).hashCode());
@@ -189,7 +202,7 @@ public abstract class BilexicalFeature extends Feature {
 		}
 
 		@Override
-		FeatureKey getFeatureKey2(final List<InputWord> words,
+		long writeKey(final KeySink sink, final List<InputWord> words,
 				final SRLLabel role, final int predicateIndex,
 				final int argumentIndex) {
 
@@ -202,10 +215,8 @@ public abstract class BilexicalFeature extends Feature {
 			}
 
 			final Object value = feature.getValue(words, nonVerbIndex);
-			final FeatureKey key = hash(super.id, role.hashCode(),
-					feature.getOffset(), value.hashCode());
-
-			return key;
+			return sink.key(super.id, role.hashCode(), feature.getOffset(),
+					value.hashCode());
 		}
 
 		@Override
@@ -233,26 +244,30 @@ public abstract class BilexicalFeature extends Feature {
 		}
 
 		@Override
-		FeatureKey getFeatureKey2(final List<InputWord> words,
+		long writeKey(final KeySink sink, final List<InputWord> words,
 				final SRLLabel role, final int predicateIndex,
 				final int argumentIndex) {
-			final int distance = predicateIndex - argumentIndex;
-			int normalizedDistance;
-			if (distance < -maxValue) {
-				normalizedDistance = -maxValue;
-			} else if (distance > maxValue) {
-				normalizedDistance = maxValue;
-			} else {
-				normalizedDistance = distance;
-			}
+			final int normalizedDistance = getNormalizedDistance(
+					predicateIndex, argumentIndex);
 
 			if (includeWordAtOffset == null) {
-				return hash(super.id, role.hashCode(), normalizedDistance);
+				return sink.key(super.id, role.hashCode(), normalizedDistance);
 			} else {
-				return hash(super.id, role.hashCode(), normalizedDistance,
+				return sink.key(super.id, role.hashCode(), normalizedDistance,
 						getWord(words, includeWordAtOffset).hashCode());
 			}
+		}
 
+		private int getNormalizedDistance(final int predicateIndex,
+				final int argumentIndex) {
+			final int distance = predicateIndex - argumentIndex;
+			if (distance < -maxValue) {
+				return -maxValue;
+			} else if (distance > maxValue) {
+				return maxValue;
+			} else {
+				return distance;
+			}
 		}
 
 	}
@@ -270,10 +285,10 @@ public abstract class BilexicalFeature extends Feature {
 		}
 
 		@Override
-		FeatureKey getFeatureKey2(final List<InputWord> words,
+		long writeKey(final KeySink sink, final List<InputWord> words,
 				final SRLLabel role, final int predicateIndex,
 				final int argumentIndex) {
-			return hash(super.id,
+			return sink.key(super.id,
 					MorphaStemmer.stemToken(words.get(predicateIndex).word)
 							.hashCode(), role.hashCode(),
 					Util.isCapitalized(words.get(argumentIndex).word) ? 7 : 13);
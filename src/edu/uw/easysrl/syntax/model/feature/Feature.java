@@ -7,12 +7,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import com.carrotsearch.hppc.ObjectDoubleHashMap;
+import com.carrotsearch.hppc.LongDoubleHashMap;
 
 import edu.uw.easysrl.main.InputReader.InputWord;
 import edu.uw.easysrl.syntax.grammar.Category;
 import edu.uw.easysrl.syntax.grammar.Combinator.RuleClass;
 import edu.uw.easysrl.syntax.grammar.Combinator.RuleType;
+import edu.uw.easysrl.util.Util;
 
 public abstract class Feature implements Serializable {
 	/**
@@ -61,6 +62,156 @@ public abstract class Feature implements Serializable {
 		public int[] getValues() {
 			return values;
 		}
+
+		/**
+		 * 64-bit hash of the values, which is the same as hash64() of the same values.
+		 */
+		public long getHash64() {
+			long result = values.length;
+			for (final int value : values) {
+				result = combine(result, value);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Converts the trained weights to a map from each feature's 64-bit hash to its score, which can be used for scoring
+	 * without allocating FeatureKeys. Returns the number of features whose hash collides with a different feature's
+	 * hash. In that case the larger of the colliding weights is kept, so the result doesn't depend on the iteration
+	 * order.
+	 */
+	public static int addHashedScores(final Map<FeatureKey, Integer> featureToIndex, final double[] weights,
+			final LongDoubleHashMap hashToScore) {
+		int collisions = 0;
+		for (final Map.Entry<FeatureKey, Integer> entry : featureToIndex.entrySet()) {
+			final long hash = entry.getKey().getHash64();
+			final double score = weights[entry.getValue()];
+			if (hashToScore.containsKey(hash)) {
+				collisions++;
+				hashToScore.put(hash, Math.max(score, hashToScore.get(hash)));
+			} else {
+				hashToScore.put(hash, score);
+			}
+		}
+		return collisions;
+	}
+
+	private static long combine(final long hash, final int value) {
+		return Util.mix64(hash * 0x9e3779b97f4a7c15L + value);
+	}
+
+	/**
+	 * Receives the values that identify a feature. Each feature passes its values to a KeySink in one method, which is
+	 * used both to build the FeatureKey for training and to hash the feature for scoring, so the two can't disagree.
+	 * Both sinks return the 64-bit hash of the values.
+	 */
+	interface KeySink {
+		long key(int a);
+
+		long key(int a, int b);
+
+		long key(int a, int b, int c);
+
+		long key(int a, int b, int c, int d);
+
+		long key(int a, int b, int c, int d, int e);
+	}
+
+	/**
+	 * Hashes the values without allocating anything.
+	 */
+	private static class Hasher implements KeySink {
+		@Override
+		public long key(final int a) {
+			return hash64(a);
+		}
+
+		@Override
+		public long key(final int a, final int b) {
+			return hash64(a, b);
+		}
+
+		@Override
+		public long key(final int a, final int b, final int c) {
+			return hash64(a, b, c);
+		}
+
+		@Override
+		public long key(final int a, final int b, final int c, final int d) {
+			return hash64(a, b, c, d);
+		}
+
+		@Override
+		public long key(final int a, final int b, final int c, final int d, final int e) {
+			return hash64(a, b, c, d, e);
+		}
+	}
+
+	static final KeySink HASHER = new Hasher();
+
+	/**
+	 * Builds a FeatureKey from the values.
+	 */
+	static class KeyBuilder implements KeySink {
+		private FeatureKey key;
+
+		@Override
+		public long key(final int a) {
+			return setKey(hash(a));
+		}
+
+		@Override
+		public long key(final int a, final int b) {
+			return setKey(hash(a, b));
+		}
+
+		@Override
+		public long key(final int a, final int b, final int c) {
+			return setKey(hash(a, b, c));
+		}
+
+		@Override
+		public long key(final int a, final int b, final int c, final int d) {
+			return setKey(hash(a, b, c, d));
+		}
+
+		@Override
+		public long key(final int a, final int b, final int c, final int d, final int e) {
+			return setKey(hash(a, b, c, d, e));
+		}
+
+		private long setKey(final FeatureKey key) {
+			this.key = key;
+			return key.getHash64();
+		}
+
+		FeatureKey getKey() {
+			return key;
+		}
+	}
+
+	/**
+	 * Allocation-free equivalents of hash(...).getHash64().
+	 */
+	private static long hash64(final int a) {
+		return combine(1, a);
+	}
+
+	private static long hash64(final int a, final int b) {
+		return combine(combine(2, a), b);
+	}
+
+	private static long hash64(final int a, final int b, final int c) {
+		return combine(combine(combine(3, a), b), c);
+	}
+
+	private static long hash64(final int a, final int b, final int c, final int d) {
+		return combine(combine(combine(combine(4, a), b), c), d);
+	}
+
+	private static long hash64(final int a, final int b, final int c, final int d, final int e) {
+		return combine(combine(combine(combine(combine(5, a), b), c), d), e);
 	}
 
 	/**
@@ -105,12 +256,12 @@ public abstract class Feature implements Serializable {
 		private static final long serialVersionUID = 1L;
 
 		public double getFeatureScore(final int ruleID, final List<InputWord> sentence, final int spanStart,
-				final int spanEnd, final ObjectDoubleHashMap<FeatureKey> featureToScore) {
-			final FeatureKey featureKey = getFeatureKey(ruleID, sentence, spanStart, spanEnd);
-			final double result = featureToScore.getOrDefault(featureKey, Double.MIN_VALUE);
+				final int spanEnd, final LongDoubleHashMap featureToScore) {
+			final long featureHash = getFeatureHash(ruleID, sentence, spanStart, spanEnd);
+			final double result = featureToScore.getOrDefault(featureHash, Double.MIN_VALUE);
 			if (result == Double.MIN_VALUE) {
 				if (defaultScore == Double.MIN_VALUE) {
-					defaultScore = featureToScore.get(defaultKey);
+					defaultScore = featureToScore.get(defaultKey.getHash64());
 				}
 
 				return defaultScore;
@@ -143,8 +294,24 @@ public abstract class Feature implements Serializable {
 			return result;
 		}
 
-		public abstract FeatureKey getFeatureKey(final int ruleID, final List<InputWord> sentence, final int spanStart,
-				final int spanEnd);
+		public final FeatureKey getFeatureKey(final int ruleID, final List<InputWord> sentence, final int spanStart,
+				final int spanEnd) {
+			final KeyBuilder builder = new KeyBuilder();
+			writeKey(builder, ruleID, sentence, spanStart, spanEnd);
+			return builder.getKey();
+		}
+
+		/**
+		 * Same as getFeatureKey(...).getHash64(), but without allocating the key.
+		 */
+		long getFeatureHash(final int ruleID, final List<InputWord> sentence, final int spanStart, final int spanEnd) {
+			return writeKey(HASHER, ruleID, sentence, spanStart, spanEnd);
+		}
+
+		/**
+		 * Passes the values that identify the feature to the sink, and returns the sink's result.
+		 */
+		abstract long writeKey(KeySink sink, int ruleID, List<InputWord> sentence, int spanStart, int spanEnd);
 
 	}
 
@@ -153,9 +320,9 @@ public abstract class Feature implements Serializable {
 		private static final long serialVersionUID = 1L;
 
 		@Override
-		public FeatureKey getFeatureKey(final int ruleID, final List<InputWord> sentence, final int spanStart,
+		long writeKey(final KeySink sink, final int ruleID, final List<InputWord> sentence, final int spanStart,
 				final int spanEnd) {
-			return hash(super.id, ruleID);
+			return sink.key(super.id, ruleID);
 		}
 	};
 
@@ -165,9 +332,9 @@ public abstract class Feature implements Serializable {
 		private static final long serialVersionUID = 1L;
 
 		@Override
-		public FeatureKey getFeatureKey(final int ruleID, final List<InputWord> sentence, final int spanStart,
+		long writeKey(final KeySink sink, final int ruleID, final List<InputWord> sentence, final int spanStart,
 				final int spanEnd) {
-			return hash(super.id, ruleID, Math.min(10, spanEnd - spanStart));
+			return sink.key(super.id, ruleID, Math.min(10, spanEnd - spanStart));
 		}
 	};
 
@@ -177,9 +344,9 @@ public abstract class Feature implements Serializable {
 		private static final long serialVersionUID = 1L;
 
 		@Override
-		public FeatureKey getFeatureKey(final int ruleID, final List<InputWord> sentence, final int spanStart,
+		long writeKey(final KeySink sink, final int ruleID, final List<InputWord> sentence, final int spanStart,
 				final int spanEnd) {
-			return hash(super.id, ruleID, (spanStart == 0 ? "" : sentence.get(spanStart - 1).word).hashCode());
+			return sink.key(super.id, ruleID, (spanStart == 0 ? "" : sentence.get(spanStart - 1).word).hashCode());
 		}
 	};
 	public final static Collection<UnaryRuleFeature> unaryRules = Arrays.asList(unaryRuleIDFeature);
@@ -209,12 +376,12 @@ public abstract class Feature implements Serializable {
 		}
 
 		public double getFeatureScore(final List<InputWord> words, final Category category,
-				final ObjectDoubleHashMap<FeatureKey> featureToScore) {
-			final FeatureKey featureKey = getFeatureKey(category, words);
-			final double result = featureToScore.getOrDefault(featureKey, Double.MIN_VALUE);
+				final LongDoubleHashMap featureToScore) {
+			final long featureHash = getFeatureHash(category, words);
+			final double result = featureToScore.getOrDefault(featureHash, Double.MIN_VALUE);
 			if (result == Double.MIN_VALUE) {
 				if (defaultScore == Double.MIN_VALUE) {
-					defaultScore = featureToScore.get(defaultKey);
+					defaultScore = featureToScore.get(defaultKey.getHash64());
 				}
 				return defaultScore;
 			}
@@ -231,14 +398,30 @@ public abstract class Feature implements Serializable {
 			defaultIndex = 0;
 		}
 
-		public abstract FeatureKey getFeatureKey(Category category, List<InputWord> sentence);
+		public final FeatureKey getFeatureKey(final Category category, final List<InputWord> sentence) {
+			final KeyBuilder builder = new KeyBuilder();
+			writeKey(builder, category, sentence);
+			return builder.getKey();
+		}
+
+		/**
+		 * Same as getFeatureKey(...).getHash64(), but without allocating the key.
+		 */
+		long getFeatureHash(final Category category, final List<InputWord> sentence) {
+			return writeKey(HASHER, category, sentence);
+		}
+
+		/**
+		 * Passes the values that identify the feature to the sink, and returns the sink's result.
+		 */
+		abstract long writeKey(KeySink sink, Category category, List<InputWord> sentence);
 
 		public static RootCategoryFeature justCategoryFeature = new RootCategoryFeature() {
 			private static final long serialVersionUID = 1L;
 
 			@Override
-			public FeatureKey getFeatureKey(final Category category, final List<InputWord> sentence) {
-				return hash(super.id, category.hashCode());
+			long writeKey(final KeySink sink, final Category category, final List<InputWord> sentence) {
+				return sink.key(super.id, category.hashCode());
 			}
 		};
 
@@ -247,8 +430,8 @@ public abstract class Feature implements Serializable {
 			private static final long serialVersionUID = 1L;
 
 			@Override
-			public FeatureKey getFeatureKey(final Category category, final List<InputWord> sentence) {
-				return hash(super.id, category.hashCode(), sentence.get(0).word.hashCode());
+			long writeKey(final KeySink sink, final Category category, final List<InputWord> sentence) {
+				return sink.key(super.id, category.hashCode(), sentence.get(0).word.hashCode());
 			}
 		};
 
@@ -257,8 +440,8 @@ public abstract class Feature implements Serializable {
 			private static final long serialVersionUID = 1L;
 
 			@Override
-			public FeatureKey getFeatureKey(final Category category, final List<InputWord> sentence) {
-				return hash(super.id, category.hashCode(), sentence.get(sentence.size() - 1).word.hashCode());
+			long writeKey(final KeySink sink, final Category category, final List<InputWord> sentence) {
+				return sink.key(super.id, category.hashCode(), sentence.get(sentence.size() - 1).word.hashCode());
 			}
 		};
 
@@ -267,8 +450,8 @@ public abstract class Feature implements Serializable {
 			private static final long serialVersionUID = 1L;
 
 			@Override
-			public FeatureKey getFeatureKey(final Category category, final List<InputWord> sentence) {
-				return hash(super.id, category.hashCode(), sentence.size());
+			long writeKey(final KeySink sink, final Category category, final List<InputWord> sentence) {
+				return sink.key(super.id, category.hashCode(), sentence.size());
 			}
 		};
 
@@ -317,20 +500,42 @@ public abstract class Feature implements Serializable {
 			return result;
 		}
 
-		public abstract FeatureKey getFeatureKey(final Category category, final RuleType ruleClass,
+		public final FeatureKey getFeatureKey(final Category category, final RuleType ruleClass,
 				final Category left, final RuleClass leftRuleClass, final int leftLength, final Category right,
-				final RuleClass rightRuleClass, int rightLength, List<InputWord> sentence);
+				final RuleClass rightRuleClass, final int rightLength, final List<InputWord> sentence) {
+			final KeyBuilder builder = new KeyBuilder();
+			writeKey(builder, category, ruleClass, left, leftRuleClass, leftLength, right, rightRuleClass,
+					rightLength, sentence);
+			return builder.getKey();
+		}
+
+		/**
+		 * Same as getFeatureKey(...).getHash64(), but without allocating the key.
+		 */
+		long getFeatureHash(final Category category, final RuleType ruleClass, final Category left,
+				final RuleClass leftRuleClass, final int leftLength, final Category right,
+				final RuleClass rightRuleClass, final int rightLength, final List<InputWord> sentence) {
+			return writeKey(HASHER, category, ruleClass, left, leftRuleClass, leftLength, right, rightRuleClass,
+					rightLength, sentence);
+		}
+
+		/**
+		 * Passes the values that identify the feature to the sink, and returns the sink's result.
+		 */
+		abstract long writeKey(KeySink sink, Category category, RuleType ruleClass, Category left,
+				RuleClass leftRuleClass, int leftLength, Category right, RuleClass rightRuleClass, int rightLength,
+				List<InputWord> sentence);
 
 		public double getFeatureScore(final Category category, final RuleType ruleClass, final Category left,
 				final RuleClass leftRuleClass, final int leftLength, final Category right,
 				final RuleClass rightRuleClass, final int rightLength, final List<InputWord> sentence,
-				final ObjectDoubleHashMap<FeatureKey> featureToScore) {
-			final FeatureKey featureKey = getFeatureKey(category, ruleClass, left, leftRuleClass, leftLength, right,
+				final LongDoubleHashMap featureToScore) {
+			final long featureHash = getFeatureHash(category, ruleClass, left, leftRuleClass, leftLength, right,
 					rightRuleClass, rightLength, sentence);
-			final double result = featureToScore.getOrDefault(featureKey, Double.MIN_VALUE);
+			final double result = featureToScore.getOrDefault(featureHash, Double.MIN_VALUE);
 			if (result == Double.MIN_VALUE) {
 				if (defaultScore == Double.MIN_VALUE) {
-					defaultScore = featureToScore.get(defaultKey);
+					defaultScore = featureToScore.get(defaultKey.getHash64());
 				}
 
 				return defaultScore;
@@ -342,10 +547,10 @@ public abstract class Feature implements Serializable {
 			private static final long serialVersionUID = 1L;
 
 			@Override
-			public FeatureKey getFeatureKey(final Category result, final RuleType ruleClass, final Category left,
+			long writeKey(final KeySink sink, final Category result, final RuleType ruleClass, final Category left,
 					final RuleClass leftRuleClass, final int leftLength, final Category right,
 					final RuleClass rightRuleClass, final int rightLength, final List<InputWord> sentence) {
-				return hash(super.id, left.hashCode(), right.hashCode());
+				return sink.key(super.id, left.hashCode(), right.hashCode());
 			}
 		};
 
@@ -354,10 +559,10 @@ public abstract class Feature implements Serializable {
 			private static final long serialVersionUID = 1L;
 
 			@Override
-			public FeatureKey getFeatureKey(final Category result, final RuleType ruleClass, final Category left,
+			long writeKey(final KeySink sink, final Category result, final RuleType ruleClass, final Category left,
 					final RuleClass leftRuleClass, final int leftLength, final Category right,
 					final RuleClass rightRuleClass, final int rightLength, final List<InputWord> sentence) {
-				return hash(super.id, left.hashCode(), right.hashCode(), result.hashCode());
+				return sink.key(super.id, left.hashCode(), right.hashCode(), result.hashCode());
 			}
 		};
 
@@ -366,10 +571,10 @@ public abstract class Feature implements Serializable {
 			private static final long serialVersionUID = 1L;
 
 			@Override
-			public FeatureKey getFeatureKey(final Category result, final RuleType ruleClass, final Category left,
+			long writeKey(final KeySink sink, final Category result, final RuleType ruleClass, final Category left,
 					final RuleClass leftRuleClass, final int leftLength, final Category right,
 					final RuleClass rightRuleClass, final int rightLength, final List<InputWord> sentence) {
-				return hash(super.id, ruleClass.toString().hashCode());
+				return sink.key(super.id, ruleClass.toString().hashCode());
 			}
 		};
 
@@ -380,10 +585,10 @@ public abstract class Feature implements Serializable {
 			private static final long serialVersionUID = 1L;
 
 			@Override
-			public FeatureKey getFeatureKey(final Category result, final RuleType ruleClass, final Category left,
+			long writeKey(final KeySink sink, final Category result, final RuleType ruleClass, final Category left,
 					final RuleClass leftRuleClass, final int leftLength, final Category right,
 					final RuleClass rightRuleClass, final int rightLength, final List<InputWord> sentence) {
-				return hash(super.id, leftRuleClass.toString().hashCode(), left.hashCode(), rightLength);
+				return sink.key(super.id, leftRuleClass.toString().hashCode(), left.hashCode(), rightLength);
 			}
 		};
 
@@ -392,10 +597,10 @@ public abstract class Feature implements Serializable {
 			private static final long serialVersionUID = 1L;
 
 			@Override
-			public FeatureKey getFeatureKey(final Category result, final RuleType ruleClass, final Category left,
+			long writeKey(final KeySink sink, final Category result, final RuleType ruleClass, final Category left,
 					final RuleClass leftRuleClass, final int leftLength, final Category right,
 					final RuleClass rightRuleClass, final int rightLength, final List<InputWord> sentence) {
-				return hash(super.id, rightRuleClass.toString().hashCode(), right.hashCode(), leftLength);
+				return sink.key(super.id, rightRuleClass.toString().hashCode(), right.hashCode(), leftLength);
 			}
 		};
 
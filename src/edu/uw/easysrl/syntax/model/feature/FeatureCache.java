@@ -4,14 +4,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
 
+import com.carrotsearch.hppc.LongDoubleHashMap;
 import com.carrotsearch.hppc.ObjectDoubleHashMap;
 
+import edu.uw.easysrl.dependencies.SRLFrame;
 import edu.uw.easysrl.dependencies.SRLFrame.SRLLabel;
 import edu.uw.easysrl.main.InputReader.InputWord;
 import edu.uw.easysrl.syntax.grammar.Category;
 import edu.uw.easysrl.syntax.grammar.Preposition;
-import edu.uw.easysrl.syntax.model.feature.Feature.FeatureKey;
 
 /**
  *
@@ -31,10 +33,10 @@ public class FeatureCache {
 	private final List<BilexicalFeature> justPredicateFeaturesAdjunct = new ArrayList<>();
 	private final List<BilexicalFeature> justArgumentFeaturesAdjunct = new ArrayList<>();;
 	private final List<BilexicalFeature> bilexicalFeatures = new ArrayList<>();
-	private final ObjectDoubleHashMap<FeatureKey> featureToScore;
+	private final LongDoubleHashMap featureToScore;
 
 	@SuppressWarnings("unchecked")
-	public FeatureCache(final List<InputWord> words, final ObjectDoubleHashMap<FeatureKey> featureToScore,
+	public FeatureCache(final List<InputWord> words, final LongDoubleHashMap featureToScore,
 			final FeatureSet featureSet, final double supertaggerWeight, final SlotFeatureCache slotFeatureCache) {
 
 		this.slotFeatureCache = slotFeatureCache;
@@ -150,14 +152,33 @@ public class FeatureCache {
 		return wordToCategoryToScore.get(wordIndex).keySet();
 	}
 
+	/**
+	 * Caches the scores of the unlexicalized argument slot features, which are shared by all sentences.
+	 *
+	 * Scores are computed lazily, unless precompute() is called when the model is loaded, after which the cache is
+	 * read-only. Whether each score has been computed is kept in a separate bitmap, so that scores of 0.0 aren't
+	 * recomputed. The score is written before its bit is set (atomically), so a thread that sees the bit also sees the
+	 * score, and the cache can be used by several parsing threads at once.
+	 */
 	public static class SlotFeatureCache {
-		private final ObjectDoubleHashMap<FeatureKey> featureToScore;
+		private final static int MAX_SLOTS = 6;
+
+		private final LongDoubleHashMap featureToScore;
 		private final List<ArgumentSlotFeature> lexicalizedSlotFeatures = new ArrayList<>();
 		private final List<ArgumentSlotFeature> unlexicalizedSlotFeatures = new ArrayList<>();
-		private final double[][][][] categoryToSlotToPrepositionToScore = new double[Category.numberOfCategories()][6][Preposition
-				.numberOfPrepositions() + 1][SRLLabel.numberOfLabels()];
 
-		public SlotFeatureCache(final FeatureSet featureSet, final ObjectDoubleHashMap<FeatureKey> featureToScore) {
+		private final int numberOfPrepositions = Preposition.numberOfPrepositions() + 1;
+		private final int numberOfLabels = SRLLabel.numberOfLabels();
+
+		/**
+		 * Scores indexed by (category, slot, preposition, role).
+		 */
+		private final double[] categoryToSlotToPrepositionToScore = new double[Category.numberOfCategories()
+				* MAX_SLOTS * numberOfPrepositions * numberOfLabels];
+		private final AtomicLongArray computed = new AtomicLongArray(
+				(categoryToSlotToPrepositionToScore.length + 63) / 64);
+
+		public SlotFeatureCache(final FeatureSet featureSet, final LongDoubleHashMap featureToScore) {
 			for (final ArgumentSlotFeature feature : featureSet.argumentSlotFeatures) {
 				if (feature.isLexicalized()) {
 					lexicalizedSlotFeatures.add(feature);
@@ -169,18 +190,34 @@ public class FeatureCache {
 			this.featureToScore = featureToScore;
 		}
 
-		public double getScore(final List<InputWord> words, final int wordIndex, final Category category,
-				final Preposition preposition, final int slot, final SRLLabel role) {
-			final int prepIndex = preposition.getID();
-			double score = categoryToSlotToPrepositionToScore[category.getID()][slot][prepIndex][role.getID()];
-			if (score == 0.0) {
-				for (final ArgumentSlotFeature feature : unlexicalizedSlotFeatures) {
-					score += feature.getFeatureScore(words, wordIndex, role, category, slot, preposition,
-							featureToScore);
+		/**
+		 * Computes the unlexicalized scores for every slot of the given categories, with every preposition and role, in
+		 * parallel. Other categories are still computed lazily.
+		 */
+		public void precompute(final Collection<Category> categories) {
+			final List<Preposition> prepositions = new ArrayList<>(Preposition.values());
+			final List<SRLLabel> roles;
+			synchronized (SRLFrame.getAllSrlLabels()) {
+				roles = new ArrayList<>(SRLFrame.getAllSrlLabels());
+			}
+
+			new ArrayList<>(categories).parallelStream().forEach(category -> {
+				final int slots = Math.min(category.getNumberOfArguments(), MAX_SLOTS - 1);
+				for (int slot = 1; slot <= slots; slot++) {
+					for (final Preposition preposition : prepositions) {
+						for (final SRLLabel role : roles) {
+							if (preposition.getID() < numberOfPrepositions && role.getID() < numberOfLabels) {
+								getUnlexicalizedScore(category, preposition, slot, role);
+							}
+						}
+					}
 				}
+			});
+		}
 
-				categoryToSlotToPrepositionToScore[category.getID()][slot][prepIndex][role.getID()] = score;
-			}
+		public double getScore(final List<InputWord> words, final int wordIndex, final Category category,
+				final Preposition preposition, final int slot, final SRLLabel role) {
+			double score = getUnlexicalizedScore(category, preposition, slot, role);
 
 			for (final ArgumentSlotFeature feature : lexicalizedSlotFeatures) {
 				score += feature.getFeatureScore(words, wordIndex, role, category, slot, preposition, featureToScore);
@@ -189,6 +226,30 @@ public class FeatureCache {
 			return score;
 		}
 
+		private double getUnlexicalizedScore(final Category category, final Preposition preposition, final int slot,
+				final SRLLabel role) {
+			final int index = ((category.getID() * MAX_SLOTS + slot) * numberOfPrepositions + preposition.getID())
+					* numberOfLabels + role.getID();
+			final long bit = 1L << index;
+			if ((computed.get(index >> 6) & bit) != 0) {
+				return categoryToSlotToPrepositionToScore[index];
+			}
+
+			double score = 0.0;
+			for (final ArgumentSlotFeature feature : unlexicalizedSlotFeatures) {
+				// Unlexicalized features don't look at the words.
+				score += feature.getFeatureScore(null, -1, role, category, slot, preposition, featureToScore);
+			}
+
+			// Several threads may compute the same score, but they'll all write the same value.
+			categoryToSlotToPrepositionToScore[index] = score;
+			long word;
+			do {
+				word = computed.get(index >> 6);
+			} while (!computed.compareAndSet(index >> 6, word, word | bit));
+
+			return score;
+		}
 	}
 
 }
@@ -5,7 +5,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
-import com.carrotsearch.hppc.ObjectDoubleHashMap;
+import com.carrotsearch.hppc.LongDoubleHashMap;
 
 import edu.uw.easysrl.lemmatizer.MorphaStemmer;
 import edu.uw.easysrl.main.InputReader.InputWord;
@@ -31,10 +31,10 @@ public abstract class PrepositionFeature extends Feature {
 		private static final long serialVersionUID = 1L;
 
 		@Override
-		public FeatureKey getFeatureKey(final List<InputWord> words,
+		long writeKey(final KeySink sink, final List<InputWord> words,
 				final int wordIndex, final Category category,
 				final Preposition preposition, final int argumentNumber) {
-			return hash(super.id, preposition.hashCode(),
+			return sink.key(super.id, preposition.hashCode(),
 					words.get(wordIndex).word.hashCode());
 		}
 	};
@@ -47,10 +47,10 @@ public abstract class PrepositionFeature extends Feature {
 		private static final long serialVersionUID = 1L;
 
 		@Override
-		public FeatureKey getFeatureKey(final List<InputWord> words,
+		long writeKey(final KeySink sink, final List<InputWord> words,
 				final int wordIndex, final Category category,
 				final Preposition preposition, final int argumentNumber) {
-			return hash(super.id, preposition.hashCode(), argumentNumber,
+			return sink.key(super.id, preposition.hashCode(), argumentNumber,
 					category.hashCode());
 		}
 	};
@@ -63,10 +63,10 @@ public abstract class PrepositionFeature extends Feature {
 		private static final long serialVersionUID = 1L;
 
 		@Override
-		public FeatureKey getFeatureKey(final List<InputWord> words,
+		long writeKey(final KeySink sink, final List<InputWord> words,
 				final int wordIndex, final Category category,
 				final Preposition preposition, final int argumentNumber) {
-			return hash(super.id, preposition.hashCode(), MorphaStemmer
+			return sink.key(super.id, preposition.hashCode(), MorphaStemmer
 					.stemToken(words.get(wordIndex).word).hashCode());
 		}
 	};
@@ -110,21 +110,44 @@ public abstract class PrepositionFeature extends Feature {
 		return result;
 	}
 
-	public abstract FeatureKey getFeatureKey(List<InputWord> words,
-			int wordIndex, Category category, Preposition preposition,
-			int argumentNumber);
+	public final FeatureKey getFeatureKey(final List<InputWord> words,
+			final int wordIndex, final Category category,
+			final Preposition preposition, final int argumentNumber) {
+		final KeyBuilder builder = new KeyBuilder();
+		writeKey(builder, words, wordIndex, category, preposition,
+				argumentNumber);
+		return builder.getKey();
+	}
+
+	/**
+	 * Same as getFeatureKey(...).getHash64(), but without allocating the
+	 * key.
+	 */
+	long getFeatureHash(final List<InputWord> words, final int wordIndex,
+			final Category category, final Preposition preposition,
+			final int argumentNumber) {
+		return writeKey(HASHER, words, wordIndex, category, preposition,
+				argumentNumber);
+	}
+
+	/**
+	 * Passes the values that identify the feature to the sink, and returns
+	 * the sink's result.
+	 */
+	abstract long writeKey(KeySink sink, List<InputWord> words, int wordIndex,
+			Category category, Preposition preposition, int argumentNumber);
 
 	public double getFeatureScore(final List<InputWord> words,
 			final int wordIndex, final Preposition preposition,
 			final Category category, final int argumentNumber,
-			final ObjectDoubleHashMap<FeatureKey> featureToScore) {
-		final FeatureKey featureKey = getFeatureKey(words, wordIndex, category,
+			final LongDoubleHashMap featureToScore) {
+		final long featureHash = getFeatureHash(words, wordIndex, category,
 				preposition, argumentNumber);
-		final double result = featureToScore.getOrDefault(featureKey,
+		final double result = featureToScore.getOrDefault(featureHash,
 				Double.MIN_VALUE);
 		if (result == Double.MIN_VALUE) {
 			if (defaultScore == Double.MIN_VALUE) {
-				defaultScore = featureToScore.get(defaultKey);
+				defaultScore = featureToScore.get(defaultKey.getHash64());
 			}
 
 			return defaultScore;
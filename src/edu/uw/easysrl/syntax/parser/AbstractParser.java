@@ -6,16 +6,13 @@ import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Table.Cell;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.uw.easysrl.dependencies.Coindexation;
@@ -25,6 +22,7 @@ import edu.uw.easysrl.semantics.Logic;
 import edu.uw.easysrl.semantics.LogicParser;
 import edu.uw.easysrl.semantics.lexicon.DefaultLexicon;
 import edu.uw.easysrl.semantics.lexicon.Lexicon;
+import edu.uw.easysrl.syntax.grammar.BinaryRuleTable;
 import edu.uw.easysrl.syntax.grammar.Category;
 import edu.uw.easysrl.syntax.grammar.Category.Slash;
 import edu.uw.easysrl.syntax.grammar.Combinator;
@@ -69,10 +67,8 @@ public abstract class AbstractParser implements Parser {
 
 		possibleRootCategories = ImmutableSet.copyOf(validRootCategories);
 		this.seenRules = new SeenRules(seenRulesFile, lexicalCategories);
-		for (final Cell<Category, Category, List<RuleProduction>> entry : seenRules.ruleTable().cellSet()) {
-			// Cache out all the rules in advance.
-			getRules(entry.getRowKey(), entry.getColumnKey());
-		}
+		// Cache out all the rules in advance.
+		this.ruleTable = new BinaryRuleTable(seenRules, binaryRules);
 
 		// Get default arguments for newer parameters.
 		final ParserBuilder builder = new ParserBuilder() {
@@ -96,10 +92,8 @@ public abstract class AbstractParser implements Parser {
 		this.normalForm = builder.getNormalForm();
 		this.nbestBeam = builder.getNbestBeam();
 
-		for (final Cell<Category, Category, List<RuleProduction>> entry : seenRules.ruleTable().cellSet()) {
-			// Cache out all the rules in advance.
-			getRules(entry.getRowKey(), entry.getColumnKey());
-		}
+		// Cache out all the rules in advance.
+		this.ruleTable = new BinaryRuleTable(seenRules, binaryRules);
 	}
 
 	protected final int maxLength;
@@ -109,6 +103,7 @@ public abstract class AbstractParser implements Parser {
 	protected final int nbest;
 
 	protected final SeenRules seenRules;
+	private final BinaryRuleTable ruleTable;
 
 	protected final Collection<Category> possibleRootCategories;
 
@@ -240,25 +235,11 @@ public abstract class AbstractParser implements Parser {
 	 */
 	protected abstract List<Scored<SyntaxTreeNode>> parse(InputToParser sentence);
 
-	private final Map<Category, Map<Category, List<RuleProduction>>> ruleCache = new IdentityHashMap<>();
-
 	/**
-	 * Returns the set of binary rule productions between these two categories.
+	 * Returns the set of binary rule productions between these two categories. Safe to call from multiple threads.
 	 */
 	protected List<RuleProduction> getRules(final Category left, final Category right) {
-		Map<Category, List<RuleProduction>> rightToRules = ruleCache.get(left);
-		if (rightToRules == null) {
-			rightToRules = new IdentityHashMap<>();
-			ruleCache.put(left, rightToRules);
-		}
-
-		List<RuleProduction> result = rightToRules.get(right);
-		if (result == null) {
-			result = Combinator.getRules(left, right, binaryRules);
-			rightToRules.put(right, result);
-		}
-
-		return result;
+		return ruleTable.getRules(left, right);
 	}
 
 	@Override
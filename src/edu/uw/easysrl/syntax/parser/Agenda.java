@@ -5,6 +5,25 @@ import java.util.Comparator;
 import edu.uw.easysrl.syntax.model.AgendaItem;
 
 public interface Agenda extends Iterable<AgendaItem> {
+	/**
+	 * Agenda implementations that a parser can be configured to use.
+	 */
+	enum Type {
+		/**
+		 * Wraps java.util.PriorityQueue, reused by each thread across sentences.
+		 */
+		PRIORITY_QUEUE,
+		/**
+		 * Binary heap over primitive arrays, reused by each thread across sentences.
+		 */
+		ARRAY_HEAP,
+		/**
+		 * Max-min heap that evicts the lowest-priority items when it reaches the maximum agenda size, instead of
+		 * stopping the search.
+		 */
+		BOUNDED
+	}
+
 	AgendaItem peek();
 
 	AgendaItem poll();
@@ -17,5 +36,18 @@ public interface Agenda extends Iterable<AgendaItem> {
 
 	int size();
 
+	/**
+	 * Removes all the items. Agendas may be reused by the same thread for the next sentence, so this should be called
+	 * when a search finishes, so that its items can be garbage collected.
+	 */
+	void clear();
+
+	/**
+	 * Number of items dropped because the agenda was full.
+	 */
+	default int getEvictions() {
+		return 0;
+	}
+
 	Comparator<AgendaItem> comparator();
 }
\ No newline at end of file
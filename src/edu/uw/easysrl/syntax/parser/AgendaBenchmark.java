@@ -0,0 +1,80 @@
+package edu.uw.easysrl.syntax.parser;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode.SyntaxTreeNodeLeaf;
+import edu.uw.easysrl.syntax.model.AgendaItem;
+
+/**
+ * Compares the throughput of Agenda implementations, on a synthetic workload shaped like A* search over a long
+ * sentence: a few thousand lexical items to start with, then each pop pushes a handful of new items.
+ *
+ * Usage: AgendaBenchmark [pushes per sentence] [sentences]
+ */
+public class AgendaBenchmark {
+	private final static int INITIAL_ITEMS = 70 * 50;
+	private final static int MAX_PUSHES_PER_POP = 6;
+
+	public static void main(final String[] args) {
+		final int pushesPerSentence = args.length > 0 ? Integer.valueOf(args[0]) : 500000;
+		final int sentences = args.length > 1 ? Integer.valueOf(args[1]) : 20;
+
+		final List<AgendaItem> items = makeItems(pushesPerSentence);
+
+		// Run twice, so that the second round is measured after JIT compilation.
+		for (int round = 0; round < 2; round++) {
+			System.out.println("Round " + (round + 1));
+			run("PriorityQueueAgenda", () -> new PriorityQueueAgenda(Comparator.naturalOrder()), items, sentences);
+			run("ArrayHeapAgenda", ArrayHeapAgenda::forCurrentThread, items, sentences);
+		}
+	}
+
+	/**
+	 * Makes items with random scores. The inside score is the only thing that varies, so that the costs are spread
+	 * out like real agenda items.
+	 */
+	private static List<AgendaItem> makeItems(final int number) {
+		final Random random = new Random(0);
+		final SyntaxTreeNodeLeaf leaf = new SyntaxTreeNodeLeaf("word", "NN", "", Category.N, 0, false);
+		final List<AgendaItem> result = new ArrayList<>(number);
+		for (int i = 0; i < number; i++) {
+			result.add(new AgendaItem(leaf, -20.0 * random.nextDouble(), 0.0, 0, 1, false));
+		}
+
+		return result;
+	}
+
+	private static void run(final String name, final Supplier<Agenda> agendaForSentence, final List<AgendaItem> items,
+			final int sentences) {
+		final Random random = new Random(1);
+		long pops = 0;
+		double checksum = 0.0;
+		final long start = System.nanoTime();
+		for (int sentence = 0; sentence < sentences; sentence++) {
+			final Agenda agenda = agendaForSentence.get();
+			int next = 0;
+			for (; next < INITIAL_ITEMS && next < items.size(); next++) {
+				agenda.add(items.get(next));
+			}
+
+			while (!agenda.isEmpty()) {
+				final AgendaItem item = agenda.poll();
+				checksum += item.getCost();
+				pops++;
+
+				final int pushes = random.nextInt(MAX_PUSHES_PER_POP + 1);
+				for (int i = 0; i < pushes && next < items.size(); i++, next++) {
+					agenda.add(items.get(next));
+				}
+			}
+		}
+
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%-20s %12.0f pops/sec (checksum %.1f)", name, pops / seconds, checksum));
+	}
+}
@@ -0,0 +1,81 @@
+package edu.uw.easysrl.syntax.parser;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.uw.easysrl.main.InputReader.InputWord;
+import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
+import edu.uw.easysrl.util.Util.Scored;
+
+/**
+ * Listener that measures how many bytes the parser allocates per sentence, using the JVM's per-thread allocation
+ * counter. Each sentence is measured from handleNewSentence() to handleSearchCompletion() on the thread that parses it,
+ * so one instance can be shared between threads. The counts include everything the model allocates during the search.
+ */
+public class AllocationMetrics implements ParserListener {
+	private final com.sun.management.ThreadMXBean threadBean;
+
+	/**
+	 * Allocated bytes on each thread when its current sentence started.
+	 */
+	private final ThreadLocal<long[]> startForThread = ThreadLocal.withInitial(() -> new long[1]);
+	private final LongAdder sentences = new LongAdder();
+	private final LongAdder totalBytes = new LongAdder();
+	private final LongAccumulator maxBytes = new LongAccumulator(Math::max, 0);
+
+	public AllocationMetrics() {
+		final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)
+				|| !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			throw new UnsupportedOperationException("This JVM can't measure allocations per thread");
+		}
+
+		this.threadBean = (com.sun.management.ThreadMXBean) bean;
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	private long getAllocatedBytes() {
+		return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	@Override
+	public void handleNewSentence(final List<InputWord> words) {
+		startForThread.get()[0] = getAllocatedBytes();
+	}
+
+	@Override
+	public boolean handleChartInsertion(final Agenda agenda) {
+		return true;
+	}
+
+	@Override
+	public void handleSearchCompletion(final List<Scored<SyntaxTreeNode>> result, final Agenda agenda,
+			final int chartSize) {
+		final long bytes = getAllocatedBytes() - startForThread.get()[0];
+		sentences.increment();
+		totalBytes.add(bytes);
+		maxBytes.accumulate(bytes);
+	}
+
+	public long getSentences() {
+		return sentences.sum();
+	}
+
+	public double getMeanBytesPerSentence() {
+		final long n = sentences.sum();
+		return n == 0 ? 0.0 : (double) totalBytes.sum() / n;
+	}
+
+	public long getMaxBytesPerSentence() {
+		return maxBytes.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Allocated per sentence: %.1f KB mean, %.1f KB max (%d sentences)",
+				getMeanBytesPerSentence() / 1024, getMaxBytesPerSentence() / 1024.0, getSentences());
+	}
+}
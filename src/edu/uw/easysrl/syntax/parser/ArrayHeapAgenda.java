@@ -0,0 +1,164 @@
+package edu.uw.easysrl.syntax.parser;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import edu.uw.easysrl.syntax.model.AgendaItem;
+
+/**
+ * Agenda implemented as a binary max-heap over primitive arrays. The costs are kept in a double[] alongside the items,
+ * so sifting never needs to call a Comparator or dereference an AgendaItem.
+ *
+ * Each thread reuses the same instance across sentences (see {@link #forCurrentThread()}), so the arrays only need to
+ * grow once.
+ */
+public class ArrayHeapAgenda implements Agenda {
+	private final static int INITIAL_CAPACITY = 1000;
+
+	private static final ThreadLocal<ArrayHeapAgenda> agendaForThread = ThreadLocal.withInitial(ArrayHeapAgenda::new);
+
+	private double[] costs;
+	private AgendaItem[] items;
+	private int size = 0;
+
+	public ArrayHeapAgenda() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public ArrayHeapAgenda(final int initialCapacity) {
+		costs = new double[initialCapacity];
+		items = new AgendaItem[initialCapacity];
+	}
+
+	/**
+	 * Returns an empty agenda that belongs to the current thread. Calling this again on the same thread clears and
+	 * returns the same agenda, so it must not be used once the next sentence starts.
+	 */
+	public static ArrayHeapAgenda forCurrentThread() {
+		final ArrayHeapAgenda result = agendaForThread.get();
+		result.clear();
+		return result;
+	}
+
+	@Override
+	public void clear() {
+		// Drop references, so that old parses can be garbage collected.
+		Arrays.fill(items, 0, size, null);
+		size = 0;
+	}
+
+	@Override
+	public Comparator<AgendaItem> comparator() {
+		return Comparator.naturalOrder();
+	}
+
+	@Override
+	public AgendaItem peek() {
+		return size == 0 ? null : items[0];
+	}
+
+	@Override
+	public AgendaItem poll() {
+		if (size == 0) {
+			return null;
+		}
+
+		final AgendaItem result = items[0];
+		size--;
+		final double lastCost = costs[size];
+		final AgendaItem lastItem = items[size];
+		items[size] = null;
+		if (size > 0) {
+			siftDown(0, lastCost, lastItem);
+		}
+
+		return result;
+	}
+
+	@Override
+	public boolean add(final AgendaItem item) {
+		if (size == items.length) {
+			final int newCapacity = items.length + (items.length >> 1) + 1;
+			costs = Arrays.copyOf(costs, newCapacity);
+			items = Arrays.copyOf(items, newCapacity);
+		}
+
+		siftUp(size, item.getCost(), item);
+		size++;
+		return true;
+	}
+
+	/**
+	 * Moves the hole at the given index up towards the root, until the cost can be placed there.
+	 */
+	private void siftUp(int index, final double cost, final AgendaItem item) {
+		while (index > 0) {
+			final int parent = (index - 1) >>> 1;
+			if (costs[parent] >= cost) {
+				break;
+			}
+
+			costs[index] = costs[parent];
+			items[index] = items[parent];
+			index = parent;
+		}
+
+		costs[index] = cost;
+		items[index] = item;
+	}
+
+	/**
+	 * Moves the hole at the given index down towards the leaves, until the cost can be placed there.
+	 */
+	private void siftDown(int index, final double cost, final AgendaItem item) {
+		final int half = size >>> 1;
+		while (index < half) {
+			int child = 2 * index + 1;
+			final int right = child + 1;
+			if (right < size && costs[right] > costs[child]) {
+				child = right;
+			}
+
+			if (cost >= costs[child]) {
+				break;
+			}
+
+			costs[index] = costs[child];
+			items[index] = items[child];
+			index = child;
+		}
+
+		costs[index] = cost;
+		items[index] = item;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Iterates over the items in heap order (not sorted by cost).
+	 */
+	@Override
+	public Iterator<AgendaItem> iterator() {
+		return new Iterator<AgendaItem>() {
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			@Override
+			public AgendaItem next() {
+				if (index >= size) {
+					throw new NoSuchElementException();
+				}
+				return items[index++];
+			}
+		};
+	}
+}
@@ -0,0 +1,262 @@
+package edu.uw.easysrl.syntax.parser;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import edu.uw.easysrl.syntax.model.AgendaItem;
+
+/**
+ * Agenda with a fixed maximum size. When it's full, adding an item evicts the lowest-priority item (which may be the
+ * new one), so search can carry on with bounded memory instead of giving up.
+ *
+ * Implemented as a max-min heap over primitive arrays: even levels of the tree are ordered by maximum cost, and odd
+ * levels by minimum, so both the best item (the root) and the worst item (one of its children) can be found in
+ * constant time. Like {@link ArrayHeapAgenda}, each thread reuses the same instance across sentences.
+ */
+public class BoundedAgenda implements Agenda {
+	private final static int INITIAL_CAPACITY = 1000;
+
+	private static final ThreadLocal<BoundedAgenda> agendaForThread = ThreadLocal.withInitial(BoundedAgenda::new);
+
+	private double[] costs;
+	private AgendaItem[] items;
+	private int size = 0;
+	private int maxSize = Integer.MAX_VALUE;
+	private int evictions = 0;
+
+	public BoundedAgenda() {
+		costs = new double[INITIAL_CAPACITY];
+		items = new AgendaItem[INITIAL_CAPACITY];
+	}
+
+	public BoundedAgenda(final int maxSize) {
+		this();
+		Preconditions.checkArgument(maxSize > 0, "Agenda size must be positive");
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Returns an empty agenda with the given maximum size that belongs to the current thread. Calling this again on the
+	 * same thread clears and returns the same agenda, so it must not be used once the next sentence starts.
+	 */
+	public static BoundedAgenda forCurrentThread(final int maxSize) {
+		Preconditions.checkArgument(maxSize > 0, "Agenda size must be positive");
+		final BoundedAgenda result = agendaForThread.get();
+		result.clear();
+		result.maxSize = maxSize;
+		return result;
+	}
+
+	@Override
+	public void clear() {
+		// Drop references, so that old parses can be garbage collected.
+		Arrays.fill(items, 0, size, null);
+		size = 0;
+		evictions = 0;
+	}
+
+	/**
+	 * Number of items that have been dropped because the agenda was full.
+	 */
+	@Override
+	public int getEvictions() {
+		return evictions;
+	}
+
+	@Override
+	public Comparator<AgendaItem> comparator() {
+		return Comparator.naturalOrder();
+	}
+
+	@Override
+	public AgendaItem peek() {
+		return size == 0 ? null : items[0];
+	}
+
+	@Override
+	public AgendaItem poll() {
+		if (size == 0) {
+			return null;
+		}
+
+		final AgendaItem result = items[0];
+		removeAt(0);
+		return result;
+	}
+
+	@Override
+	public boolean add(final AgendaItem item) {
+		final double cost = item.getCost();
+		if (size >= maxSize) {
+			evictions++;
+			final int worst = indexOfMin();
+			if (cost <= costs[worst]) {
+				// The new item is the worst one, so don't bother adding it.
+				return false;
+			}
+
+			removeAt(worst);
+		}
+
+		if (size == items.length) {
+			final int newCapacity = (int) Math.min(maxSize, items.length + (items.length >> 1) + 1L);
+			costs = Arrays.copyOf(costs, newCapacity);
+			items = Arrays.copyOf(items, newCapacity);
+		}
+
+		costs[size] = cost;
+		items[size] = item;
+		bubbleUp(size);
+		size++;
+		return true;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Iterates over the items in heap order (not sorted by cost).
+	 */
+	@Override
+	public Iterator<AgendaItem> iterator() {
+		return new Iterator<AgendaItem>() {
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			@Override
+			public AgendaItem next() {
+				if (index >= size) {
+					throw new NoSuchElementException();
+				}
+				return items[index++];
+			}
+		};
+	}
+
+	private int indexOfMin() {
+		if (size <= 2) {
+			return size - 1;
+		}
+
+		return costs[1] <= costs[2] ? 1 : 2;
+	}
+
+	private void removeAt(final int index) {
+		size--;
+		if (index != size) {
+			costs[index] = costs[size];
+			items[index] = items[size];
+		}
+
+		items[size] = null;
+		if (index < size) {
+			trickleDown(index);
+		}
+	}
+
+	private static boolean isMaxLevel(final int index) {
+		return ((31 - Integer.numberOfLeadingZeros(index + 1)) & 1) == 0;
+	}
+
+	private void swap(final int i, final int j) {
+		final double cost = costs[i];
+		costs[i] = costs[j];
+		costs[j] = cost;
+		final AgendaItem item = items[i];
+		items[i] = items[j];
+		items[j] = item;
+	}
+
+	private void bubbleUp(final int index) {
+		if (index == 0) {
+			return;
+		}
+
+		final int parent = (index - 1) >>> 1;
+		if (isMaxLevel(index)) {
+			if (costs[index] < costs[parent]) {
+				swap(index, parent);
+				bubbleUp(parent, false);
+			} else {
+				bubbleUp(index, true);
+			}
+		} else {
+			if (costs[index] > costs[parent]) {
+				swap(index, parent);
+				bubbleUp(parent, true);
+			} else {
+				bubbleUp(index, false);
+			}
+		}
+	}
+
+	/**
+	 * Moves an item up through the levels of the same kind (max or min), comparing it with its grandparents.
+	 */
+	private void bubbleUp(int index, final boolean max) {
+		while (index > 2) {
+			final int grandparent = (((index - 1) >>> 1) - 1) >>> 1;
+			if (max ? costs[index] > costs[grandparent] : costs[index] < costs[grandparent]) {
+				swap(index, grandparent);
+				index = grandparent;
+			} else {
+				break;
+			}
+		}
+	}
+
+	private void trickleDown(int index) {
+		final boolean max = isMaxLevel(index);
+		while (true) {
+			final int firstChild = 2 * index + 1;
+			if (firstChild >= size) {
+				return;
+			}
+
+			// Find the best (for this level) of the children and grandchildren.
+			int best = firstChild;
+			final int lastDescendant = Math.min(size - 1, 4 * index + 6);
+			for (int i = firstChild + 1; i <= lastDescendant; i++) {
+				if (i == firstChild + 2) {
+					// Skip from the children to the grandchildren.
+					i = 4 * index + 3;
+					if (i > lastDescendant) {
+						break;
+					}
+				}
+
+				if (max ? costs[i] > costs[best] : costs[i] < costs[best]) {
+					best = i;
+				}
+			}
+
+			if (!(max ? costs[best] > costs[index] : costs[best] < costs[index])) {
+				return;
+			}
+
+			swap(best, index);
+			if (best <= firstChild + 1) {
+				// Child, so we're done.
+				return;
+			}
+
+			// Grandchild, which may now be on the wrong side of its parent.
+			final int parent = (best - 1) >>> 1;
+			if (max ? costs[best] < costs[parent] : costs[best] > costs[parent]) {
+				swap(best, parent);
+			}
+
+			index = best;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package edu.uw.easysrl.syntax.parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.model.AgendaItem;
+
+/**
+ * Groups the entries of an A* chart cell by category, so that the parser can skip over categories that can't combine
+ * with a new item, rather than checking every entry. Cells in the joint and N-best models can hold many entries per
+ * category.
+ */
+class CategoryIndex {
+	private final Map<Category, List<AgendaItem>> categoryToEntries = new HashMap<>();
+
+	/**
+	 * The categories in this cell, in the order they were added.
+	 */
+	private final List<Category> categories = new ArrayList<>();
+
+	void add(final AgendaItem entry) {
+		final Category category = entry.getParse().getCategory();
+		List<AgendaItem> entries = categoryToEntries.get(category);
+		if (entries == null) {
+			entries = new ArrayList<>(1);
+			categoryToEntries.put(category, entries);
+			categories.add(category);
+		}
+
+		entries.add(entry);
+	}
+
+	void clear() {
+		categoryToEntries.clear();
+		categories.clear();
+	}
+
+	List<Category> getCategories() {
+		return categories;
+	}
+
+	/**
+	 * Returns the entries with the given category, or null if there aren't any.
+	 */
+	List<AgendaItem> getEntries(final Category category) {
+		return categoryToEntries.get(category);
+	}
+}
@@ -1,22 +1,14 @@
 package edu.uw.easysrl.syntax.parser;
 
 import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ListMultimap;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Table;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 
-import edu.uw.easysrl.dependencies.UnlabelledDependency;
-import edu.uw.easysrl.syntax.grammar.Category;
-import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
 import edu.uw.easysrl.syntax.model.AgendaItem;
 import edu.uw.easysrl.util.FastTreeMap;
 
@@ -46,6 +38,11 @@ public abstract class ChartCell {
 
 	public abstract int size();
 
+	/**
+	 * Removes all the entries, so that the cell can be reused for another sentence.
+	 */
+	public abstract void clear();
+
 	/**
 	 * Chart Cell used for 1-best parsing.
 	 */
@@ -67,6 +64,11 @@ public abstract class ChartCell {
 			return keyToProbability.size();
 		}
 
+		@Override
+		public void clear() {
+			keyToProbability.clear();
+		}
+
 		public static ChartCellFactory factory() {
 			return new ChartCellFactory() {
 
@@ -100,6 +102,11 @@ public abstract class ChartCell {
 			return keyToProbability.size();
 		}
 
+		@Override
+		public void clear() {
+			keyToProbability.clear();
+		}
+
 		public static ChartCellFactory factory() {
 			return new ChartCellFactory() {
 
@@ -167,6 +174,11 @@ public abstract class ChartCell {
 			return entries.size();
 		}
 
+		@Override
+		public void clear() {
+			entries.clear();
+		}
+
 		public static ChartCellFactory factory() {
 			return new ChartCellFactory() {
 
@@ -186,66 +198,10 @@ public abstract class ChartCell {
 		private final int nbest;
 		private final double nbestBeam;
 
-		public ChartCellNbestFactory(final int nbest, final double nbestBeam, final int maxSentenceLength,
-				final Collection<Category> categories) {
+		public ChartCellNbestFactory(final int nbest, final double nbestBeam) {
 			super();
 			this.nbest = nbest;
 			this.nbestBeam = nbestBeam;
-			final Random randomGenerator = new Random();
-
-			// Build a hash for every possible dependency
-			categoryToArgumentToHeadToModifierToHash = HashBasedTable.create();
-			for (final Category c : categories) {
-				for (int i = 1; i <= c.getNumberOfArguments(); i++) {
-					final int[][] array = new int[maxSentenceLength][maxSentenceLength];
-					categoryToArgumentToHeadToModifierToHash.put(c, i, array);
-					for (int head = 0; head < maxSentenceLength; head++) {
-						for (int child = 0; child < maxSentenceLength; child++) {
-							array[head][child] = randomGenerator.nextInt();
-						}
-					}
-				}
-			}
-		}
-
-		public ChartCellNbestFactory(ChartCellNbestFactory other) {
-			this.nbest = other.nbest;
-			this.nbestBeam = other.nbestBeam;
-			this.categoryToArgumentToHeadToModifierToHash = other.categoryToArgumentToHeadToModifierToHash;
-		}
-
-		// A cache of hash scores for nodes, to save recomputing them. I'm not in love with this design, but at least it
-		// keeps all the hashing code in one place.
-		private final Map<SyntaxTreeNode, Integer> nodeToHash = new HashMap<>();
-		private final Table<Category, Integer, int[][]> categoryToArgumentToHeadToModifierToHash;
-
-		private int getHash(final SyntaxTreeNode parse) {
-			Integer result = nodeToHash.get(parse);
-			if (result == null) {
-				result = 0;
-
-				// Add in a hash for each dependency at this node.
-				final List<UnlabelledDependency> resolvedUnlabelledDependencies = parse
-						.getResolvedUnlabelledDependencies();
-				if (resolvedUnlabelledDependencies != null) {
-					for (final UnlabelledDependency dep : resolvedUnlabelledDependencies) {
-						for (final int arg : dep.getArguments()) {
-							if (dep.getHead() != arg) {
-								result = result
-										^ categoryToArgumentToHeadToModifierToHash.get(dep.getCategory(),
-												dep.getArgNumber())[dep.getHead()][arg];
-							}
-						}
-
-					}
-				}
-
-				for (final SyntaxTreeNode child : parse.getChildren()) {
-					result = result ^ getHash(child);
-				}
-			}
-
-			return result;
 		}
 
 		/**
@@ -267,7 +223,6 @@ public abstract class ChartCell {
 						|| (existing.size() > 0 && newEntry.getCost() < existing.get(0).getCost() + Math.log(nbestBeam))) {
 					return false;
 				} else {
-					// Only cache out hashes for nodes that get added to the chart.
 					keyToEntries.put(key, newEntry);
 					return true;
 				}
@@ -278,6 +233,11 @@ public abstract class ChartCell {
 			public int size() {
 				return keyToEntries.size();
 			}
+
+			@Override
+			public void clear() {
+				keyToEntries.clear();
+			}
 		}
 
 		/**
@@ -285,7 +245,6 @@ public abstract class ChartCell {
 		 */
 		class CellNBestWithHashing extends ChartCell {
 			private final ListMultimap<Object, AgendaItem> keyToEntries = ArrayListMultimap.create();
-			private final Multimap<Object, Integer> keyToHash = HashMultimap.create();
 
 			@Override
 			public Collection<AgendaItem> getEntries() {
@@ -300,17 +259,15 @@ public abstract class ChartCell {
 						|| (existing.size() > 0 && newEntry.getCost() < nbestBeam * existing.get(0).getCost())) {
 					return false;
 				} else {
-					final Integer hash = getHash(newEntry.getParse());
-					if (keyToHash.containsEntry(key, hash)) {
-						// Already have an equivalent node.
-						return false;
+					final long hash = newEntry.getDependencyHash();
+					for (final AgendaItem entry : existing) {
+						if (entry.getDependencyHash() == hash) {
+							// Already have an equivalent node.
+							return false;
+						}
 					}
 
 					keyToEntries.put(key, newEntry);
-					keyToHash.put(key, hash);
-
-					// Cache out hash for this parse.
-					nodeToHash.put(newEntry.getParse(), hash);
 					return true;
 				}
 			}
@@ -319,6 +276,11 @@ public abstract class ChartCell {
 			public int size() {
 				return keyToEntries.size();
 			}
+
+			@Override
+			public void clear() {
+				keyToEntries.clear();
+			}
 		}
 
 		@Override
@@ -326,11 +288,6 @@ public abstract class ChartCell {
 			return // new CellNBest();
 			new CellNBestWithHashing();
 		}
-
-		@Override
-		public ChartCellFactory forNewSentence() {
-			return new ChartCellNbestFactory(this);
-		}
 	}
 
 }
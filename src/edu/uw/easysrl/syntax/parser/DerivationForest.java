@@ -0,0 +1,298 @@
+package edu.uw.easysrl.syntax.parser;
+
+import com.google.common.primitives.Ints;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import edu.uw.easysrl.dependencies.UnlabelledDependency;
+import edu.uw.easysrl.syntax.grammar.Combinator.RuleProduction;
+import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
+import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode.SyntaxTreeNodeUnary;
+import edu.uw.easysrl.syntax.model.AgendaItem;
+import edu.uw.easysrl.syntax.parser.AbstractParser.UnaryRule;
+import edu.uw.easysrl.util.Util.Scored;
+
+/**
+ * Records every derivation of the items in a 1-best A* chart, so that the N-best parses can be extracted lazily once
+ * the search is finished, using Algorithm 3 of Huang and Chiang (2005), "Better k-best Parsing".
+ *
+ * Each chart entry is a vertex of a hypergraph. Each way of building it is a hyperedge, including items that were
+ * rejected from the chart because an equivalent entry was already there. The score of a hyperedge is the item's
+ * inside score minus its children's. That's exact for models whose scores are sums over the children (apart from the
+ * supertag-factored model's small head-distance penalty, which is taken from the first derivation).
+ *
+ * Hyperedges are made from the items' back-pointers to the items they were built from, so recording a derivation
+ * doesn't build its SyntaxTreeNode. Nodes are only built for the derivations that are extracted.
+ *
+ * Unlike the dependency-hashing N-best cells, the parses aren't checked for having distinct dependencies.
+ */
+class DerivationForest {
+	private final AbstractParser parser;
+	private final boolean usingDependencies;
+
+	/**
+	 * Vertices for each cell in the chart, keyed by the equivalence class of their entries.
+	 */
+	private final Map<Object, Vertex>[][] chart;
+	private final Map<AgendaItem, Vertex> itemToVertex = new IdentityHashMap<>();
+
+	/**
+	 * Dummy vertex, with an edge to each complete parse.
+	 */
+	private final Vertex root = new Vertex(0.0);
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	DerivationForest(final AbstractParser parser, final int sentenceLength, final boolean usingDependencies) {
+		this.parser = parser;
+		this.usingDependencies = usingDependencies;
+		this.chart = new Map[sentenceLength][sentenceLength];
+	}
+
+	/**
+	 * Adds a vertex for a new chart entry.
+	 */
+	void addChartEntry(final AgendaItem item) {
+		Map<Object, Vertex> cell = chart[item.getStartOfSpan()][item.getSpanLength() - 1];
+		if (cell == null) {
+			cell = new HashMap<>();
+			chart[item.getStartOfSpan()][item.getSpanLength() - 1] = cell;
+		}
+
+		final Vertex vertex = new Vertex(item.getInsideScore());
+		cell.put(item.getEquivalenceClassKey(), vertex);
+		itemToVertex.put(item, vertex);
+		addEdge(vertex, item);
+	}
+
+	/**
+	 * Adds an item that wasn't added to the chart, as another derivation of the equivalent chart entry.
+	 */
+	void addAlternativeDerivation(final AgendaItem item) {
+		final Map<Object, Vertex> cell = chart[item.getStartOfSpan()][item.getSpanLength() - 1];
+		final Vertex vertex = cell == null ? null : cell.get(item.getEquivalenceClassKey());
+		if (vertex != null) {
+			addEdge(vertex, item);
+		}
+	}
+
+	/**
+	 * Marks a chart entry as a complete parse.
+	 */
+	void addCompleteParse(final AgendaItem item) {
+		root.edges.add(new Edge(null, new Vertex[] { itemToVertex.get(item) }, 0.0));
+	}
+
+	private void addEdge(final Vertex vertex, final AgendaItem item) {
+		final AgendaItem leftChild = item.getLeftChild();
+		final AgendaItem rightChild = item.getRightChild();
+		final Vertex[] tails = new Vertex[leftChild == null ? 0 : (rightChild == null ? 1 : 2)];
+		double score = item.getInsideScore();
+		for (int i = 0; i < tails.length; i++) {
+			tails[i] = itemToVertex.get(i == 0 ? leftChild : rightChild);
+			if (tails[i] == null) {
+				// Shouldn't happen, because items are only built from chart entries.
+				return;
+			}
+			score -= tails[i].insideScore;
+		}
+
+		vertex.edges.add(new Edge(item, tails, score));
+	}
+
+	/**
+	 * Returns up to N of the highest scoring parses, best first. Derivations that can't be rebuilt are skipped, without
+	 * counting towards the N.
+	 */
+	List<Scored<SyntaxTreeNode>> getNbest(final int nbest) {
+		final List<Scored<SyntaxTreeNode>> result = new ArrayList<>(nbest);
+		for (int i = 0; result.size() < nbest; i++) {
+			final Derivation derivation = root.getDerivation(i);
+			if (derivation == null) {
+				break;
+			}
+
+			final SyntaxTreeNode parse = derivation.getParse();
+			if (parse != null) {
+				result.add(new Scored<>(parse, derivation.score));
+			}
+		}
+
+		return result;
+	}
+
+	private static class Edge {
+		/**
+		 * The item that this edge came from, or null for the edges from the dummy root.
+		 */
+		private final AgendaItem item;
+		private final Vertex[] tails;
+		private final double score;
+
+		/**
+		 * Indices of the derivations of the tails that have been used as candidates.
+		 */
+		private final Set<List<Integer>> seen = new HashSet<>();
+
+		private Edge(final AgendaItem item, final Vertex[] tails, final double score) {
+			this.item = item;
+			this.tails = tails;
+			this.score = score;
+		}
+	}
+
+	private class Derivation implements Comparable<Derivation> {
+		private final Edge edge;
+		private final int[] indices;
+		private final double score;
+		private SyntaxTreeNode parse;
+		private boolean isBuilt = false;
+
+		private Derivation(final Edge edge, final int[] indices, final double score) {
+			this.edge = edge;
+			this.indices = indices;
+			this.score = score;
+		}
+
+		@Override
+		public int compareTo(final Derivation other) {
+			return Double.compare(other.score, score);
+		}
+
+		/**
+		 * Builds the parse for this derivation, or returns null if it can't be built.
+		 */
+		private SyntaxTreeNode getParse() {
+			if (!isBuilt) {
+				parse = buildParse();
+				isBuilt = true;
+			}
+
+			return parse;
+		}
+
+		private SyntaxTreeNode buildParse() {
+			final List<SyntaxTreeNode> children = new ArrayList<>(indices.length);
+			boolean isSameAsItem = true;
+			for (int i = 0; i < indices.length; i++) {
+				final SyntaxTreeNode child = edge.tails[i].getDerivation(indices[i]).getParse();
+				if (child == null) {
+					return null;
+				}
+
+				children.add(child);
+				isSameAsItem = isSameAsItem && edge.item != null
+						&& child == (i == 0 ? edge.item.getLeftChild() : edge.item.getRightChild()).getParse();
+			}
+
+			if (edge.item == null) {
+				return children.get(0);
+			} else if (isSameAsItem) {
+				// Includes lexical items, which have no children.
+				return edge.item.getParse();
+			} else if (edge.item.getRule() != null) {
+				return edge.item.getRule().apply(children.get(0), children.get(1), usingDependencies);
+			} else if (edge.item.getParse() instanceof SyntaxTreeNodeUnary) {
+				final UnaryRule unaryRule = ((SyntaxTreeNodeUnary) edge.item.getParse()).getUnaryRule();
+				final SyntaxTreeNode child = children.get(0);
+				if (usingDependencies) {
+					final List<UnlabelledDependency> resolvedDependencies = new ArrayList<>();
+					return new SyntaxTreeNodeUnary(unaryRule.getResult(), child, unaryRule
+							.getDependencyStructureTransformation().apply(child.getDependencyStructure(),
+									resolvedDependencies), unaryRule, resolvedDependencies);
+				} else {
+					return new SyntaxTreeNodeUnary(unaryRule.getResult(), child, null, unaryRule, null);
+				}
+			} else {
+				// A binary node that was built eagerly, so find its rule again.
+				final SyntaxTreeNode node = edge.item.getParse();
+				final SyntaxTreeNode left = children.get(0);
+				final SyntaxTreeNode right = children.get(1);
+				for (final RuleProduction rule : parser.getRules(left.getCategory(), right.getCategory())) {
+					if (rule.getRuleType() == node.getRuleType() && rule.getCategory() == node.getCategory()) {
+						return rule.apply(left, right, usingDependencies);
+					}
+				}
+
+				return null;
+			}
+		}
+	}
+
+	private class Vertex {
+		/**
+		 * Inside score of the chart entry, which is the score of the best derivation.
+		 */
+		private final double insideScore;
+		private final List<Edge> edges = new ArrayList<>(1);
+		private final List<Derivation> derivations = new ArrayList<>();
+		private PriorityQueue<Derivation> candidates;
+
+		/**
+		 * Number of derivations whose successors have been added to the candidates.
+		 */
+		private int expanded = 0;
+
+		private Vertex(final double insideScore) {
+			this.insideScore = insideScore;
+		}
+
+		/**
+		 * Returns the k'th best derivation of this vertex (from 0), or null if there aren't that many.
+		 */
+		private Derivation getDerivation(final int k) {
+			if (candidates == null) {
+				candidates = new PriorityQueue<>();
+				for (final Edge edge : edges) {
+					addCandidate(edge, new int[edge.tails.length]);
+				}
+			}
+
+			while (derivations.size() <= k) {
+				for (; expanded < derivations.size(); expanded++) {
+					addSuccessors(derivations.get(expanded));
+				}
+
+				if (candidates.isEmpty()) {
+					return null;
+				}
+
+				derivations.add(candidates.poll());
+			}
+
+			return derivations.get(k);
+		}
+
+		private void addSuccessors(final Derivation derivation) {
+			for (int i = 0; i < derivation.indices.length; i++) {
+				final int[] indices = Arrays.copyOf(derivation.indices, derivation.indices.length);
+				indices[i]++;
+				addCandidate(derivation.edge, indices);
+			}
+		}
+
+		private void addCandidate(final Edge edge, final int[] indices) {
+			if (!edge.seen.add(Ints.asList(indices))) {
+				return;
+			}
+
+			double score = edge.score;
+			for (int i = 0; i < indices.length; i++) {
+				final Derivation tail = edge.tails[i].getDerivation(indices[i]);
+				if (tail == null) {
+					return;
+				}
+				score += tail.score;
+			}
+
+			candidates.add(new Derivation(edge, indices, score));
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package edu.uw.easysrl.syntax.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.uw.easysrl.syntax.parser.ChartCell.ChartCellFactory;
+
+/**
+ * The per-sentence state of an A* parse: the chart, its category index, the non-empty cells starting and ending at
+ * each position, and the cells themselves.
+ *
+ * Each thread keeps one context per parser and resets it for every sentence, so that a stream of short sentences
+ * doesn't allocate a new chart each time. The chart arrays grow to fit the longest sentence seen so far, and cleared
+ * cells are kept for reuse as long as the cell factory stays the same.
+ */
+class ParseContext {
+	private ChartCell[][] chart = new ChartCell[0][0];
+	private CategoryIndex[][] chartIndex = new CategoryIndex[0][0];
+	private final List<List<CategoryIndex>> cellsStartingAt = new ArrayList<>();
+	private final List<List<CategoryIndex>> cellsEndingAt = new ArrayList<>();
+
+	/**
+	 * Cells and indexes handed out for the current sentence, and ones that can be handed out again.
+	 */
+	private final List<ChartCell> usedCells = new ArrayList<>();
+	private final List<ChartCell> freeCells = new ArrayList<>();
+	private final List<CategoryIndex> usedIndexes = new ArrayList<>();
+	private final List<CategoryIndex> freeIndexes = new ArrayList<>();
+
+	private ChartCellFactory cellFactory;
+	private int sentenceLength = 0;
+
+	/**
+	 * Prepares the context for a new sentence, whose cells will be made by the given factory.
+	 */
+	void reset(final ChartCellFactory cellFactory, final int sentenceLength) {
+		clear();
+		if (cellFactory != this.cellFactory) {
+			// Cells from a different factory may behave differently.
+			freeCells.clear();
+			this.cellFactory = cellFactory;
+		}
+
+		if (sentenceLength > chart.length) {
+			chart = new ChartCell[sentenceLength][sentenceLength];
+			chartIndex = new CategoryIndex[sentenceLength][sentenceLength];
+		}
+
+		while (cellsStartingAt.size() < sentenceLength + 1) {
+			cellsStartingAt.add(new ArrayList<>());
+			cellsEndingAt.add(new ArrayList<>());
+		}
+
+		this.sentenceLength = sentenceLength;
+	}
+
+	/**
+	 * Empties the chart and its cells, so that they don't keep the last sentence's parses alive.
+	 */
+	void clear() {
+		if (sentenceLength == 0) {
+			// Already cleared.
+			return;
+		}
+
+		for (int i = 0; i < sentenceLength; i++) {
+			Arrays.fill(chart[i], 0, sentenceLength, null);
+			Arrays.fill(chartIndex[i], 0, sentenceLength, null);
+		}
+
+		for (int i = 0; i < sentenceLength + 1; i++) {
+			cellsStartingAt.get(i).clear();
+			cellsEndingAt.get(i).clear();
+		}
+
+		for (final ChartCell cell : usedCells) {
+			cell.clear();
+		}
+		freeCells.addAll(usedCells);
+		usedCells.clear();
+
+		for (final CategoryIndex index : usedIndexes) {
+			index.clear();
+		}
+		freeIndexes.addAll(usedIndexes);
+		usedIndexes.clear();
+
+		sentenceLength = 0;
+	}
+
+	ChartCell[][] getChart() {
+		return chart;
+	}
+
+	CategoryIndex[][] getChartIndex() {
+		return chartIndex;
+	}
+
+	List<List<CategoryIndex>> getCellsStartingAt() {
+		return cellsStartingAt;
+	}
+
+	List<List<CategoryIndex>> getCellsEndingAt() {
+		return cellsEndingAt;
+	}
+
+	ChartCell makeCell() {
+		final ChartCell result = freeCells.isEmpty() ? cellFactory.make() : freeCells.remove(freeCells.size() - 1);
+		usedCells.add(result);
+		return result;
+	}
+
+	CategoryIndex makeIndex() {
+		final CategoryIndex result = freeIndexes.isEmpty() ? new CategoryIndex() : freeIndexes
+				.remove(freeIndexes.size() - 1);
+		usedIndexes.add(result);
+		return result;
+	}
+}
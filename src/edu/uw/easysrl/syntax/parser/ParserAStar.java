@@ -3,9 +3,10 @@ package edu.uw.easysrl.syntax.parser;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
-import edu.uw.easysrl.dependencies.DependencyStructure;
 import edu.uw.easysrl.dependencies.UnlabelledDependency;
 import edu.uw.easysrl.main.InputReader.InputToParser;
 import edu.uw.easysrl.main.InputReader.InputWord;
@@ -18,6 +19,7 @@ import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode.SyntaxTreeNodeUnary;
 import edu.uw.easysrl.syntax.model.AgendaItem;
 import edu.uw.easysrl.syntax.model.Model;
 import edu.uw.easysrl.syntax.model.Model.ModelFactory;
+import edu.uw.easysrl.syntax.model.SupertagFactoredModel.SupertagFactoredModelFactory;
 import edu.uw.easysrl.syntax.parser.ChartCell.Cell1Best;
 import edu.uw.easysrl.syntax.parser.ChartCell.Cell1BestTreeBased;
 import edu.uw.easysrl.syntax.parser.ChartCell.CellNoDynamicProgram;
@@ -35,6 +37,19 @@ public class ParserAStar extends AbstractParser {
 	protected final ChartCellFactory cellFactory;
 	protected final boolean usingDependencies;
 	protected final List<ParserListener> listeners;
+	protected final Agenda.Type agendaType;
+	protected final long maxParseTimeNanos;
+	protected final boolean lazyNbest;
+
+	/**
+	 * How often (in agenda pops) to check the time limit and interruption, so that the check is cheap.
+	 */
+	private final static int TIME_CHECK_INTERVAL = 64;
+
+	/**
+	 * Chart and cells for each thread, reused across sentences.
+	 */
+	private final ThreadLocal<ParseContext> contextForThread = ThreadLocal.withInitial(ParseContext::new);
 
 	@Deprecated
 	public ParserAStar(final ModelFactory modelFactory, final int maxSentenceLength, final int nbest,
@@ -45,21 +60,23 @@ public class ParserAStar extends AbstractParser {
 		this.modelFactory = modelFactory;
 		this.maxChartSize = maxChartSize;
 		this.usingDependencies = modelFactory.isUsingDependencies();
-		this.cellFactory = chooseCellFactory(modelFactory, nbest);
 
 		// Get default arguments for newer parameters.
 		final ParserBuilder builder = new Builder(modelFolder);
 		this.maxAgendaSize = builder.getMaxAgendaSize();
 		this.listeners = builder.getListeners();
+		this.agendaType = builder.getAgendaType();
+		this.maxParseTimeNanos = builder.getMaxParseTimeNanos();
+		this.lazyNbest = builder.getLazyNbest();
+		this.cellFactory = chooseCellFactory(modelFactory, nbest);
 	}
 
 	protected ChartCellFactory chooseCellFactory(final ModelFactory modelFactory, final int nbest) {
 		final ChartCellFactory cellFactory;
 		if (!this.modelFactory.isUsingDynamicProgram()) {
 			cellFactory = CellNoDynamicProgram.factory();
-		} else if (nbest > 1) {
-			cellFactory = new ChartCellNbestFactory(this.nbest, this.nbestBeam, super.maxLength,
-					super.lexicalCategories);
+		} else if (nbest > 1 && !lazyNbest) {
+			cellFactory = new ChartCellNbestFactory(this.nbest, this.nbestBeam);
 		} else if (modelFactory.isUsingDependencies()) {
 			cellFactory = Cell1Best.factory();
 		} else {
@@ -74,8 +91,17 @@ public class ParserAStar extends AbstractParser {
 		this.maxChartSize = builder.getMaxChartSize();
 		this.maxAgendaSize = builder.getMaxAgendaSize();
 		this.listeners = builder.getListeners();
+		this.agendaType = builder.getAgendaType();
+		this.maxParseTimeNanos = builder.getMaxParseTimeNanos();
+		this.lazyNbest = builder.getLazyNbest();
 		this.usingDependencies = modelFactory.isUsingDependencies();
 		this.cellFactory = chooseCellFactory(modelFactory, nbest);
+
+		if (lazyNbest && nbest > 1 && !(modelFactory instanceof SupertagFactoredModelFactory)) {
+			// The DerivationForest rebuilds parses with the grammar rules, which would lose anything else the model
+			// adds to the chart, such as the joint model's SRL labels.
+			throw new IllegalArgumentException("Lazy N-best parsing is only supported for the supertag-factored model");
+		}
 	}
 
 	@Override
@@ -87,30 +113,46 @@ public class ParserAStar extends AbstractParser {
 		}
 		final Model model = modelFactory.make(input);
 		final int sentenceLength = sentence.size();
-		final Agenda agenda = model.makeAgenda();
+		final Agenda agenda = model.makeAgenda(agendaType, maxAgendaSize);
 		model.buildAgenda(agenda, sentence);
-		final ChartCell[][] chart = new ChartCell[sentenceLength][sentenceLength];
+		final ParseContext context = contextForThread.get();
+		context.reset(sentenceCellFactory, sentenceLength);
+		final ChartCell[][] chart = context.getChart();
+		final CategoryIndex[][] chartIndex = context.getChartIndex();
 
 		final List<Scored<SyntaxTreeNode>> result = new ArrayList<>(nbest);
 		int chartSize = 0;
 
 		// Track which cells in the chart are non-empty. This is helpful, because the A* chart is very sparse compared
 		// to CKY charts.
-		final List<List<ChartCell>> cellsStartingAt = new ArrayList<>(sentenceLength + 1);
-		final List<List<ChartCell>> cellsEndingAt = new ArrayList<>(sentenceLength + 1);
-		for (int i = 0; i < sentenceLength + 1; i++) {
-			cellsStartingAt.add(new ArrayList<>());
-			cellsEndingAt.add(new ArrayList<>());
-		}
+		final List<List<CategoryIndex>> cellsStartingAt = context.getCellsStartingAt();
+		final List<List<CategoryIndex>> cellsEndingAt = context.getCellsEndingAt();
 
 		// Dummy final cell that the complete parses are stored in.
-		final ChartCell finalCell = sentenceCellFactory.make();
+		final ChartCell finalCell = context.makeCell();
+
+		// For lazy N-best parsing, all the derivations of each chart entry.
+		final DerivationForest forest = lazyNbest && nbest > 1 ? new DerivationForest(this, sentenceLength,
+				usingDependencies) : null;
+
+		final boolean hasTimeLimit = maxParseTimeNanos != Long.MAX_VALUE;
+		final long deadline = hasTimeLimit ? System.nanoTime() + maxParseTimeNanos : 0L;
+		boolean outOfTime = false;
+		int iterations = 0;
 
 		while (chartSize < maxChartSize
-				&& !agenda.isEmpty()
-				&& agenda.size() < maxAgendaSize
+				// With adaptive supertagging, if the search fails, try again with more lexical categories.
+				&& (!agenda.isEmpty() || widenSupertaggerBeam(model, agenda, sentence, result))
+				// A bounded agenda evicts items rather than growing past the maximum size.
+				&& (agendaType == Agenda.Type.BOUNDED || agenda.size() < maxAgendaSize)
 				&& (result.isEmpty() || (result.size() < nbest &&	
 					agenda.peek().getCost() > result.get(0).getScore() + Math.log(nbestBeam)))) {
+			if (++iterations % TIME_CHECK_INTERVAL == 0
+					&& (Thread.currentThread().isInterrupted() || (hasTimeLimit && System.nanoTime() - deadline > 0))) {
+				outOfTime = true;
+				break;
+			}
+
 			// Add items from the agenda, until we have enough parses.
 			final AgendaItem agendaItem = agenda.peek();
 			if (agendaItem.getInsideScore() <= Double.NEGATIVE_INFINITY) {
@@ -120,13 +162,17 @@ public class ParserAStar extends AbstractParser {
 			// Try to put an entry in the chart.
 			ChartCell cell = chart[agendaItem.getStartOfSpan()][agendaItem.getSpanLength() - 1];
 			if (cell == null) {
-				cell = sentenceCellFactory.make();
+				cell = context.makeCell();
 				chart[agendaItem.getStartOfSpan()][agendaItem.getSpanLength() - 1] = cell;
-				cellsStartingAt.get(agendaItem.getStartOfSpan()).add(cell);
-				cellsEndingAt.get(agendaItem.getStartOfSpan() + agendaItem.getSpanLength()).add(cell);
+				final CategoryIndex index = context.makeIndex();
+				chartIndex[agendaItem.getStartOfSpan()][agendaItem.getSpanLength() - 1] = index;
+				cellsStartingAt.get(agendaItem.getStartOfSpan()).add(index);
+				cellsEndingAt.get(agendaItem.getStartOfSpan() + agendaItem.getSpanLength()).add(index);
 			}
 
 			if (cell.add(agendaItem)) {
+				chartIndex[agendaItem.getStartOfSpan()][agendaItem.getSpanLength() - 1].add(agendaItem);
+
 				boolean keepParsing = true;
 				for (final ParserListener listener : listeners) {
 					keepParsing = keepParsing && listener.handleChartInsertion(agenda);
@@ -139,43 +185,74 @@ public class ParserAStar extends AbstractParser {
 				agenda.poll();
 				// If a new entry was added, update the agenda.
 
+				if (forest != null) {
+					forest.addChartEntry(agendaItem);
+				}
+
 				// Is the new entry an acceptable complete parse?
 				if (agendaItem.getSpanLength() == sentenceLength
 						&& (possibleRootCategories.isEmpty() || possibleRootCategories.contains(agendaItem.getParse()
-								.getCategory())) &&
-								// For N-best parsing, the final cell checks if that the final parse is unique. e.g. if it's
-								// dependencies are unique, ignoring the category
-								finalCell.add("", agendaItem)) {
-					result.add(new Scored<>(agendaItem.getParse(), agendaItem.getInsideScore()));
+								.getCategory()))) {
+					if (forest != null) {
+						forest.addCompleteParse(agendaItem);
+					}
+
+					// For N-best parsing, the final cell checks if that the final parse is unique. e.g. if it's
+					// dependencies are unique, ignoring the category
+					if (finalCell.add("", agendaItem)) {
+						result.add(new Scored<>(agendaItem.getParse(), agendaItem.getInsideScore()));
+					}
 				}
 
 				// See if any Unary Rules can be applied to the new entry.
 				updateAgendaUnary(model, agendaItem, agenda);
 
 				// See if the new entry can be the left argument of any binary rules.
-				for (final ChartCell rightCell : cellsStartingAt.get(agendaItem.getStartOfSpan()
-						+ agendaItem.getSpanLength())) {
-					for (final AgendaItem rightEntry : rightCell.getEntries()) {
-						updateAgenda(agenda, agendaItem, rightEntry, model);
-					}
-				}
+				combineWithNeighbours(agenda, agendaItem, cellsStartingAt.get(agendaItem.getStartOfSpan()
+						+ agendaItem.getSpanLength()), true, model);
 
-				// See if the new entry can be the right argument of any binary
-				// rules.
-				for (final ChartCell leftCell : cellsEndingAt.get(agendaItem.getStartOfSpan())) {
-					for (final AgendaItem leftEntry : leftCell.getEntries()) {
-						updateAgenda(agenda, leftEntry, agendaItem, model);
-					}
-				}
+				// See if the new entry can be the right argument of any binary rules.
+				combineWithNeighbours(agenda, agendaItem, cellsEndingAt.get(agendaItem.getStartOfSpan()), false, model);
 			} else {
+				if (forest != null) {
+					// Keep the derivation, in case it's needed for the N-best list.
+					forest.addAlternativeDerivation(agendaItem);
+				}
 				agenda.poll();
 			}
 		}
 
+		if (forest != null && !result.isEmpty()) {
+			final List<Scored<SyntaxTreeNode>> nbestParses = forest.getNbest(nbest);
+			// The forest's 1-best should be the parse that A* found.
+			assert nbestParses.isEmpty()
+					|| Math.abs(nbestParses.get(0).getScore() - result.get(0).getScore()) < 1e-6 : "Lazy 1-best score "
+					+ nbestParses.get(0).getScore() + " differs from A* 1-best " + result.get(0).getScore();
+			if (!nbestParses.isEmpty()) {
+				result.clear();
+				result.addAll(nbestParses);
+			}
+		}
+
+		if (outOfTime && result.isEmpty()) {
+			// Return a best-effort parse, rather than nothing.
+			final Scored<SyntaxTreeNode> fragments = makeFragmentParse(chart, sentenceLength);
+			if (fragments != null) {
+				result.add(fragments);
+			}
+		}
+
+		// The chart is reused for the next sentence on this thread.
+		context.clear();
+
 		for (final ParserListener listener : listeners) {
+			listener.handleAgendaEvictions(agenda.getEvictions());
 			listener.handleSearchCompletion(result, agenda, chartSize);
 		}
 
+		// So is the agenda, which would otherwise keep the unexplored items alive until then.
+		agenda.clear();
+
 		if (result.size() == 0) {
 			// Parse failure.
 			return null;
@@ -185,6 +262,133 @@ public class ParserAStar extends AbstractParser {
 
 	}
 
+	/**
+	 * Adds lexical categories from wider supertagger beams to the agenda, until there's something to search. Returns
+	 * false if no more categories can be added, or if a parse has already been found.
+	 */
+	private static boolean widenSupertaggerBeam(final Model model, final Agenda agenda, final List<InputWord> sentence,
+			final List<Scored<SyntaxTreeNode>> result) {
+		if (!result.isEmpty()) {
+			return false;
+		}
+
+		while (agenda.isEmpty()) {
+			if (!model.widenSupertaggerBeam(agenda, sentence)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Builds a parse from the fewest chart entries that cover the sentence, preferring the highest total inside score
+	 * between coverings with the same number of fragments. The fragments are joined right-branching, with the right
+	 * fragment as the head (like punctuation removal). Returns null if the chart doesn't cover the sentence.
+	 */
+	private Scored<SyntaxTreeNode> makeFragmentParse(final ChartCell[][] chart, final int sentenceLength) {
+		// Dynamic program over the end positions of the fragments.
+		final int[] fragments = new int[sentenceLength + 1];
+		final double[] scores = new double[sentenceLength + 1];
+		final AgendaItem[] lastFragment = new AgendaItem[sentenceLength + 1];
+		Arrays.fill(fragments, 1, sentenceLength + 1, Integer.MAX_VALUE);
+		for (int end = 1; end <= sentenceLength; end++) {
+			for (int start = 0; start < end; start++) {
+				final ChartCell cell = chart[start][end - start - 1];
+				if (cell == null || fragments[start] == Integer.MAX_VALUE) {
+					continue;
+				}
+
+				final AgendaItem best = getBestEntry(cell);
+				if (best == null) {
+					continue;
+				}
+
+				final int numberOfFragments = fragments[start] + 1;
+				final double score = scores[start] + best.getInsideScore();
+				if (numberOfFragments < fragments[end] || (numberOfFragments == fragments[end] && score > scores[end])) {
+					fragments[end] = numberOfFragments;
+					scores[end] = score;
+					lastFragment[end] = best;
+				}
+			}
+		}
+
+		if (fragments[sentenceLength] == Integer.MAX_VALUE) {
+			return null;
+		}
+
+		SyntaxTreeNode result = null;
+		for (int end = sentenceLength; end > 0; end -= lastFragment[end].getSpanLength()) {
+			final SyntaxTreeNode fragment = lastFragment[end].getParse();
+			if (result == null) {
+				result = fragment;
+			} else if (usingDependencies) {
+				result = new SyntaxTreeNodeBinary(result.getCategory(), fragment, result, RuleType.LP, false,
+						result.getDependencyStructure(), Collections.emptyList());
+			} else {
+				result = new SyntaxTreeNodeBinary(result.getCategory(), fragment, result, RuleType.LP, false, null, null);
+			}
+		}
+
+		return new Scored<>(result, scores[sentenceLength]);
+	}
+
+	private static AgendaItem getBestEntry(final ChartCell cell) {
+		AgendaItem result = null;
+		for (final AgendaItem entry : cell.getEntries()) {
+			if (result == null || entry.getInsideScore() > result.getInsideScore()) {
+				result = entry;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Updates the agenda with all binary rules that combine a new chart entry with entries in the neighbouring cells.
+	 * Only entries whose category has been seen combining with the new entry's category are visited: either by looking
+	 * up the seen neighbouring categories in each cell, or by checking each category in the cell, whichever is fewer.
+	 */
+	private void combineWithNeighbours(final Agenda agenda, final AgendaItem newItem,
+			final List<CategoryIndex> neighbours, final boolean newItemIsLeft, final Model model) {
+		final Category category = newItem.getParse().getCategory();
+		final List<Category> seenNeighbours = allowUnseenRules ? null : (newItemIsLeft ? seenRules
+				.getSeenRightCategories(category) : seenRules.getSeenLeftCategories(category));
+
+		for (final CategoryIndex cell : neighbours) {
+			final List<Category> cellCategories = cell.getCategories();
+			if (seenNeighbours != null && seenNeighbours.size() < cellCategories.size()) {
+				for (final Category neighbourCategory : seenNeighbours) {
+					final List<AgendaItem> entries = cell.getEntries(neighbourCategory);
+					if (entries != null) {
+						combineWithEntries(agenda, newItem, entries, newItemIsLeft, model);
+					}
+				}
+			} else {
+				for (int i = 0; i < cellCategories.size(); i++) {
+					final Category neighbourCategory = cellCategories.get(i);
+					if (seenNeighbours == null
+							|| (newItemIsLeft ? seenRules.isSeen(category, neighbourCategory) : seenRules.isSeen(
+									neighbourCategory, category))) {
+						combineWithEntries(agenda, newItem, cell.getEntries(neighbourCategory), newItemIsLeft, model);
+					}
+				}
+			}
+		}
+	}
+
+	private void combineWithEntries(final Agenda agenda, final AgendaItem newItem, final List<AgendaItem> entries,
+			final boolean newItemIsLeft, final Model model) {
+		for (int i = 0; i < entries.size(); i++) {
+			if (newItemIsLeft) {
+				updateAgenda(agenda, newItem, entries.get(i), model);
+			} else {
+				updateAgenda(agenda, entries.get(i), newItem, model);
+			}
+		}
+	}
+
 	/**
 	 * Updates the agenda with of any unary rules that can be applied.
 	 */
@@ -243,24 +447,9 @@ public class ParserAStar extends AbstractParser {
 					leftChild.getCategory(), rightChild.getCategory(), production.getCategory(),
 					left.getStartOfSpan() == 0)) {
 
-				final SyntaxTreeNodeBinary newNode;
-				if (usingDependencies) {
-					// Update all the information for tracking dependencies.
-					final List<UnlabelledDependency> resolvedDependencies = new ArrayList<>();
-					final DependencyStructure newDependencies = production.getCombinator().apply(
-							leftChild.getDependencyStructure(), rightChild.getDependencyStructure(),
-							resolvedDependencies);
-
-					newNode = new SyntaxTreeNodeBinary(production.getCategory(), leftChild, rightChild,
-							production.getRuleType(), production.isHeadIsLeft(), newDependencies, resolvedDependencies);
-
-				} else {
-					// If we're not modeling dependencies, we can save a lot of work.
-					newNode = new SyntaxTreeNodeBinary(production.getCategory(), leftChild, rightChild,
-							production.getRuleType(), production.isHeadIsLeft(), null, null);
-				}
-
-				agenda.add(model.combineNodes(left, right, newNode));
+				// The model decides whether the new node (and its dependencies) need to be built now, or only if the
+				// item gets added to the chart.
+				agenda.add(model.combineNodes(left, right, production, usingDependencies));
 			}
 		}
 	}
@@ -1,6 +1,8 @@
 package edu.uw.easysrl.syntax.parser;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ListMultimap;
+import com.google.common.primitives.Doubles;
 
 import java.io.File;
 import java.io.IOException;
@@ -10,6 +12,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import edu.uw.easysrl.dependencies.Coindexation;
 import edu.uw.easysrl.syntax.grammar.Category;
@@ -25,10 +28,12 @@ import edu.uw.easysrl.syntax.model.feature.FeatureSet;
 import edu.uw.easysrl.syntax.parser.AbstractParser.UnaryRule;
 import edu.uw.easysrl.syntax.tagger.Tagger;
 import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings;
+import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings.Precision;
 import edu.uw.easysrl.syntax.training.Training;
 import edu.uw.easysrl.util.Util;
 
 public abstract class ParserBuilder<T extends ParserBuilder<T>> {
+	private final static double BEAM_WIDENING_FACTOR = 0.1;
 
 	ParserBuilder(final File modelFolder) {
 		modelFolder(modelFolder);
@@ -126,6 +131,26 @@ public abstract class ParserBuilder<T extends ParserBuilder<T>> {
 		return listeners;
 	}
 
+	public Agenda.Type getAgendaType() {
+		return agendaType;
+	}
+
+	public int getCellParallelism() {
+		return cellParallelism;
+	}
+
+	public long getMaxParseTimeNanos() {
+		return maxParseTimeNanos;
+	}
+
+	public boolean getLazyNbest() {
+		return lazyNbest;
+	}
+
+	public Double getInitialSupertaggerBeam() {
+		return initialSupertaggerBeam;
+	}
+
 	private Collection<Category> lexicalCategories;
 	private int maxSentenceLength = 70;
 	private int nbest = 1;
@@ -147,6 +172,14 @@ public abstract class ParserBuilder<T extends ParserBuilder<T>> {
 	private NormalForm normalForm = new NormalForm();
 	private double nbestBeam = 0.001;
 	private List<ParserListener> listeners = Collections.emptyList();
+	private Agenda.Type agendaType = Agenda.Type.PRIORITY_QUEUE;
+	private int cellParallelism = 1;
+	private long maxParseTimeNanos = Long.MAX_VALUE;
+	private Double initialSupertaggerBeam;
+	private boolean lazyNbest = false;
+	private boolean precomputeSlotFeatures = false;
+	private int taggerProjectionCacheSize = 0;
+	private Precision taggerPrecision = Precision.DOUBLE;
 
 	public T nBest(final int nBest) {
 		this.nbest = nBest;
@@ -231,12 +264,29 @@ public abstract class ParserBuilder<T extends ParserBuilder<T>> {
 		return getThis();
 	}
 
+	/**
+	 * Agenda.Type.BOUNDED caps the agenda at the maxAgendaSize, evicting the worst items, rather than failing the parse
+	 * when it gets that big.
+	 */
+	public T agendaType(final Agenda.Type agendaType) {
+		this.agendaType = agendaType;
+		return getThis();
+	}
+
 	@SuppressWarnings("unchecked")
 	T getThis() {
 		return (T) this;
 	}
 
 	public AbstractParser build() {
+		if (initialSupertaggerBeam != null) {
+			// Other models would silently ignore the beams.
+			Preconditions.checkState(modelFactory == null && !jointModel,
+					"Adaptive supertagging is only supported for the supertag-factored model made by the builder");
+			Preconditions.checkState(supertaggerBeam < initialSupertaggerBeam && initialSupertaggerBeam <= 1,
+					"Must have supertaggerBeam < initialSupertaggerBeam <= 1");
+		}
+
 		try {
 			if (modelFactory == null) {
 				if (jointModel) {
@@ -249,14 +299,16 @@ public abstract class ParserBuilder<T extends ParserBuilder<T>> {
 					modelFactory = new SRLFactoredModelFactory(weights,
 							Util.<FeatureSet>deserialize(new File(modelFolder, "features"))
 									.setSupertaggingFeature(new File(modelFolder, "/pipeline"), supertaggerBeam),
-							lexicalCategories, cutoffs, keyToIndex);
+							lexicalCategories, cutoffs, keyToIndex, precomputeSlotFeatures);
 
 				} else {
 					final Tagger tagger = !useSupertaggedInput ?
-							Tagger.make(modelFolder, supertaggerBeam, 50, cutoffs) :
+							Tagger.make(modelFolder, supertaggerBeam, 50, cutoffs, taggerProjectionCacheSize,
+									taggerPrecision) :
 							null;
 
-					modelFactory = new SupertagFactoredModelFactory(tagger, lexicalCategories, nbest > 1);
+					modelFactory = new SupertagFactoredModelFactory(tagger, lexicalCategories, nbest > 1,
+							getAdaptiveSupertaggerBeams());
 
 				}
 			}
@@ -271,6 +323,15 @@ public abstract class ParserBuilder<T extends ParserBuilder<T>> {
 		return getThis();
 	}
 
+	/**
+	 * For the joint model, computes the unlexicalized argument slot feature scores when the model is loaded, rather
+	 * than lazily while parsing. This makes loading slower, but the first sentences faster.
+	 */
+	public T precomputeSlotFeatures(final boolean precomputeSlotFeatures) {
+		this.precomputeSlotFeatures = precomputeSlotFeatures;
+		return getThis();
+	}
+
 	public T maxChartSize(final int maxChartSize) {
 		this.maxChartSize = maxChartSize;
 		return getThis();
@@ -281,5 +342,84 @@ public abstract class ParserBuilder<T extends ParserBuilder<T>> {
 		return getThis();
 	}
 
+	/**
+	 * Number of threads used to fill the cells of each CKY span length in parallel. Only used by ParserCKY (and
+	 * ParserBeamSearch), and only for models that are thread-safe.
+	 */
+	public T cellParallelism(final int cellParallelism) {
+		this.cellParallelism = cellParallelism;
+		return getThis();
+	}
+
+	/**
+	 * Time limit for parsing each sentence, which is checked by ParserAStar. When the time runs out, the parser returns
+	 * the best parses found so far, or if there aren't any, a fragmentary parse made from the best chart entries.
+	 */
+	public T maxParseTime(final long maxParseTime, final TimeUnit unit) {
+		Preconditions.checkArgument(maxParseTime > 0, "Time limit must be positive");
+		this.maxParseTimeNanos = unit.toNanos(maxParseTime);
+		return getThis();
+	}
+
+	/**
+	 * Turns on adaptive supertagging, for the supertag-factored model with ParserAStar. Parsing starts with the given
+	 * (tight) beam. If it fails, the beam is widened by a factor of 10 at a time, down to the supertaggerBeam, and the
+	 * newly admitted lexical categories are added to the existing chart.
+	 *
+	 * The initial beam must be tighter (i.e. larger) than the supertaggerBeam, and at most 1. It can't be used with the
+	 * joint model or a custom modelFactory, which build() rejects.
+	 */
+	public T adaptiveSupertaggerBeam(final double initialSupertaggerBeam) {
+		this.initialSupertaggerBeam = initialSupertaggerBeam;
+		return getThis();
+	}
+
+	/**
+	 * Beams for adaptive supertagging, from the initial beam to the supertaggerBeam.
+	 */
+	private double[] getAdaptiveSupertaggerBeams() {
+		if (initialSupertaggerBeam == null) {
+			return new double[0];
+		}
+
+		final List<Double> result = new ArrayList<>();
+		for (double beam = initialSupertaggerBeam; beam > supertaggerBeam; beam = beam * BEAM_WIDENING_FACTOR) {
+			result.add(beam);
+		}
+		result.add(supertaggerBeam);
+		return Doubles.toArray(result);
+	}
+
+	/**
+	 * For N-best parsing with ParserAStar: if true, search for the 1-best parse while recording all the derivations of
+	 * each chart entry, and then extract the N-best lazily (Huang and Chiang, 2005). Otherwise, the chart keeps up to N
+	 * entries per equivalence class, using dependency hashing (Ng and Curran, 2012). Lazy N-best parsing is only
+	 * supported for the supertag-factored model.
+	 */
+	public T lazyNbest(final boolean lazyNbest) {
+		this.lazyNbest = lazyNbest;
+		return getThis();
+	}
+
+	/**
+	 * For the supertag-factored model with a TaggerEmbeddings supertagger: the number of (window position, word)
+	 * projections the tagger caches, or 0 (the default) for no cache. See
+	 * TaggerEmbeddings.RECOMMENDED_PROJECTION_CACHE_SIZE.
+	 */
+	public T taggerProjectionCacheSize(final int taggerProjectionCacheSize) {
+		Preconditions.checkArgument(taggerProjectionCacheSize >= 0, "Cache size must be non-negative");
+		this.taggerProjectionCacheSize = taggerProjectionCacheSize;
+		return getThis();
+	}
+
+	/**
+	 * For the supertag-factored model with a TaggerEmbeddings supertagger: how the tagger stores its weights and
+	 * embeddings. Defaults to DOUBLE.
+	 */
+	public T taggerPrecision(final Precision taggerPrecision) {
+		this.taggerPrecision = Preconditions.checkNotNull(taggerPrecision);
+		return getThis();
+	}
+
 	protected abstract AbstractParser build2();
 }
@@ -5,18 +5,20 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.stream.Collectors;
 
 import edu.uw.easysrl.dependencies.DependencyStructure;
 import edu.uw.easysrl.dependencies.UnlabelledDependency;
 import edu.uw.easysrl.main.InputReader.InputToParser;
 import edu.uw.easysrl.syntax.grammar.Category;
-import edu.uw.easysrl.syntax.grammar.Combinator;
 import edu.uw.easysrl.syntax.grammar.Combinator.RuleClass;
 import edu.uw.easysrl.syntax.grammar.Combinator.RuleProduction;
 import edu.uw.easysrl.syntax.grammar.Combinator.RuleType;
 import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode;
-import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode.SyntaxTreeNodeBinary;
 import edu.uw.easysrl.syntax.grammar.SyntaxTreeNode.SyntaxTreeNodeUnary;
 import edu.uw.easysrl.syntax.model.AgendaItem;
 import edu.uw.easysrl.syntax.model.Model;
@@ -37,6 +39,8 @@ public class ParserCKY extends AbstractParser {
 		// Get default arguments for newer parameters.
 		final ParserBuilder builder = new Builder(modelFolder);
 		this.listeners = builder.getListeners();
+		this.agendaType = builder.getAgendaType();
+		this.cellPool = getCellPool(builder.getCellParallelism());
 	}
 
 	protected ParserCKY(final Builder builder) {
@@ -44,11 +48,29 @@ public class ParserCKY extends AbstractParser {
 		this.maxChartSize = builder.getMaxChartSize();
 		this.modelFactory = builder.getModelFactory();
 		this.listeners = builder.getListeners();
+		this.agendaType = builder.getAgendaType();
+		this.cellPool = getCellPool(builder.getCellParallelism());
+	}
+
+	/**
+	 * Pools for filling chart cells, shared by all parsers with the same parallelism. Their worker threads are daemon
+	 * threads, so the pools never need to be shut down.
+	 */
+	private static final Map<Integer, ForkJoinPool> cellPools = new ConcurrentHashMap<>();
+
+	private static ForkJoinPool getCellPool(final int parallelism) {
+		return parallelism > 1 ? cellPools.computeIfAbsent(parallelism, ForkJoinPool::new) : null;
 	}
 
 	private final int maxChartSize;
 	private final ModelFactory modelFactory;
 	private final List<ParserListener> listeners;
+	private final Agenda.Type agendaType;
+
+	/**
+	 * Used to fill the cells for each span length in parallel. Null if running single-threaded.
+	 */
+	private final ForkJoinPool cellPool;
 
 	@Override
 	protected List<Scored<SyntaxTreeNode>> parse(final InputToParser input) {
@@ -65,7 +87,7 @@ public class ParserCKY extends AbstractParser {
 		final Model model = modelFactory.make(input);
 
 		// Add lexical categories
-		final Agenda agenda = model.makeAgenda();
+		final Agenda agenda = model.makeAgenda(agendaType, Integer.MAX_VALUE);
 		model.buildAgenda(agenda, input.getInputWords());
 		for (final AgendaItem item : agenda) {
 			ChartCell cell = chart[item.getStartOfSpan()][item.getSpanLength() - 1];
@@ -80,10 +102,22 @@ public class ParserCKY extends AbstractParser {
 			addEntry(cell, item, model);
 		}
 
+		// The agenda may be reused for the next sentence on this thread, so don't keep the lexical items alive.
+		agenda.clear();
+
 		int size = 0;
+		final boolean parallel = cellPool != null && model.isThreadSafe();
 		for (int spanLength = 2; spanLength <= numWords; spanLength++) {
-			for (int startOfSpan = 0; startOfSpan <= numWords - spanLength; startOfSpan++) {
-				final ChartCell newCell = makeChartCell(chart, startOfSpan, spanLength, model);
+			final ChartCell[] newCells = new ChartCell[numWords - spanLength + 1];
+			if (parallel) {
+				// Cells with the same span length only depend on shorter spans, so they can be built independently.
+				// Each cell is built by exactly one task, so the chart is the same as when running single-threaded.
+				cellPool.invoke(new MakeChartCells(chart, newCells, spanLength, model, 0, newCells.length));
+			}
+
+			for (int startOfSpan = 0; startOfSpan < newCells.length; startOfSpan++) {
+				final ChartCell newCell = parallel ? newCells[startOfSpan] : makeChartCell(chart, startOfSpan,
+						spanLength, model);
 
 				chart[startOfSpan][spanLength - 1] = newCell;
 				size += newCell.size();
@@ -112,6 +146,40 @@ public class ParserCKY extends AbstractParser {
 		return result.size() == 0 ? null : result.subList(0, 1);
 	}
 
+	/**
+	 * Builds the cells for a range of start positions with the same span length, splitting the range between threads.
+	 */
+	private class MakeChartCells extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final ChartCell[][] chart;
+		private final ChartCell[] newCells;
+		private final int spanLength;
+		private final Model model;
+		private final int fromStart;
+		private final int toStart;
+
+		private MakeChartCells(final ChartCell[][] chart, final ChartCell[] newCells, final int spanLength,
+				final Model model, final int fromStart, final int toStart) {
+			this.chart = chart;
+			this.newCells = newCells;
+			this.spanLength = spanLength;
+			this.model = model;
+			this.fromStart = fromStart;
+			this.toStart = toStart;
+		}
+
+		@Override
+		protected void compute() {
+			if (toStart - fromStart == 1) {
+				newCells[fromStart] = makeChartCell(chart, fromStart, spanLength, model);
+			} else {
+				final int middle = (fromStart + toStart) >>> 1;
+				invokeAll(new MakeChartCells(chart, newCells, spanLength, model, fromStart, middle),
+						new MakeChartCells(chart, newCells, spanLength, model, middle, toStart));
+			}
+		}
+	}
+
 	ChartCell makeChartCell(final ChartCell[][] chart, final int startOfSpan, final int spanLength, final Model model) {
 
 		final ChartCell newCell = createCell();
@@ -137,8 +205,7 @@ public class ParserCKY extends AbstractParser {
 					continue;
 				}
 
-				for (final RuleProduction rule : Combinator.getRules(l.getParse().getCategory(), r.getParse()
-						.getCategory(), binaryRules)) {
+				for (final RuleProduction rule : getRules(l.getParse().getCategory(), r.getParse().getCategory())) {
 
 					final RuleClass leftRuleClass = l.getParse().getRuleType().getNormalFormClassForRule();
 					final RuleType ruleType = rule.getRuleType();
@@ -148,20 +215,7 @@ public class ParserCKY extends AbstractParser {
 							.getParse().getCategory(), rule.getCategory(), l.getStartOfSpan() == 0)) {
 						continue;
 					}
-					final SyntaxTreeNode newNode;
-
-					if (l.getParse().hasDependencies()) {
-						final List<UnlabelledDependency> resolvedDependencies = new ArrayList<>();
-						final DependencyStructure deps = rule.getCombinator().apply(
-								l.getParse().getDependencyStructure(), r.getParse().getDependencyStructure(),
-								resolvedDependencies);
-
-						newNode = new SyntaxTreeNodeBinary(rule.getCategory(), l.getParse(), r.getParse(), ruleType,
-								rule.isHeadIsLeft(), deps, resolvedDependencies);
-					} else {
-						newNode = new SyntaxTreeNodeBinary(rule.getCategory(), l.getParse(), r.getParse(), ruleType,
-								rule.isHeadIsLeft(), null, null);
-					}
+					final SyntaxTreeNode newNode = rule.apply(l.getParse(), r.getParse(), l.getParse().hasDependencies());
 
 					final AgendaItem newItem = model.combineNodes(l, r, newNode);
 
@@ -204,6 +258,15 @@ public class ParserCKY extends AbstractParser {
 			super.maxChartSize(300000);
 		}
 
+		/**
+		 * Not supported, because CKY fills the whole chart from the lexical categories it starts with, so it never
+		 * widens the beam.
+		 */
+		@Override
+		public Builder adaptiveSupertaggerBeam(final double initialSupertaggerBeam) {
+			throw new UnsupportedOperationException("Adaptive supertagging is only supported by ParserAStar");
+		}
+
 		@Override
 		protected ParserCKY build2() {
 			return new ParserCKY(this);
@@ -9,8 +9,15 @@ import edu.uw.easysrl.util.Util.Scored;
 public interface ParserListener {
 	void handleNewSentence(final List<InputWord> words);
 
-	// Returns whether or not to keep parsing.
+	// Returns whether or not to keep parsing. ParserAStar calls this while the new chart entry is still at the head of
+	// the agenda, so agenda.peek() returns it. ParserCKY passes a null agenda.
 	boolean handleChartInsertion(final Agenda agenda);
 
+	/**
+	 * Called once per sentence, before handleSearchCompletion, with the number of items a bounded agenda dropped.
+	 */
+	default void handleAgendaEvictions(final int evictions) {
+	}
+
 	void handleSearchCompletion(final List<Scored<SyntaxTreeNode>> result, final Agenda agenda, final int chartSize);
 }
@@ -7,6 +7,9 @@ import java.util.PriorityQueue;
 import edu.uw.easysrl.syntax.model.AgendaItem;
 
 public class PriorityQueueAgenda implements Agenda {
+	private static final ThreadLocal<PriorityQueueAgenda> agendaForThread = ThreadLocal
+			.withInitial(() -> new PriorityQueueAgenda(Comparator.naturalOrder()));
+
 	private final PriorityQueue<AgendaItem> queue;
 	private final Comparator<AgendaItem> comparator;
 
@@ -15,6 +18,21 @@ public class PriorityQueueAgenda implements Agenda {
 		this.queue = new PriorityQueue<>(1000, comparator);
 	}
 
+	/**
+	 * Returns an empty agenda, ordered by cost, that belongs to the current thread. Calling this again on the same
+	 * thread clears and returns the same agenda, so it must not be used once the next sentence starts.
+	 */
+	public static PriorityQueueAgenda forCurrentThread() {
+		final PriorityQueueAgenda result = agendaForThread.get();
+		result.clear();
+		return result;
+	}
+
+	@Override
+	public void clear() {
+		queue.clear();
+	}
+
 	@Override
 	public Comparator<AgendaItem> comparator() {
 		return comparator;
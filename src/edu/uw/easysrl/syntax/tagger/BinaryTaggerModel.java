@@ -0,0 +1,310 @@
+package edu.uw.easysrl.syntax.tagger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings.EmbeddingTable;
+import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings.Precision;
+import edu.uw.easysrl.util.Util;
+
+/**
+ * The parameters of TaggerEmbeddings in a single binary file, which is memory-mapped rather than parsed. Loading it is
+ * much faster than reading the text files, and JVMs on the same machine share its pages in the OS's page cache.
+ *
+ * The file is little-endian, and contains the word embeddings, suffix embeddings and capitalization embeddings (each
+ * as a vocabulary followed by a block of floats, one row per word), then the classifier as a block of floats (one row
+ * per category), and then the bias as doubles.
+ *
+ * Usage: BinaryTaggerModel model_folder
+ *
+ * This converts the text files in the folder to a binary model in the same folder, which TaggerEmbeddings then uses
+ * instead, as long as it's newer than the text files.
+ */
+public class BinaryTaggerModel {
+	public final static String FILE_NAME = "tagger.bin";
+
+	private final static int MAGIC = 0x45534554;
+	private final static int VERSION = 1;
+	private final static ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	/**
+	 * Text files that the binary model is made from, apart from the word embeddings.
+	 */
+	private final static List<String> SOURCE_FILES = Arrays.asList("suffix", "capitals", "classifier", "bias",
+			"categories");
+
+	private final EmbeddingTable embeddings;
+	private final EmbeddingTable suffixes;
+	private final EmbeddingTable capitalization;
+	private final WeightMatrix classifier;
+	private final double[] bias;
+
+	private BinaryTaggerModel(final EmbeddingTable embeddings, final EmbeddingTable suffixes,
+			final EmbeddingTable capitalization, final WeightMatrix classifier, final double[] bias) {
+		this.embeddings = embeddings;
+		this.suffixes = suffixes;
+		this.capitalization = capitalization;
+		this.classifier = classifier;
+		this.bias = bias;
+	}
+
+	public static void main(final String[] args) throws IOException {
+		final File modelFolder = new File(args[0]);
+		convert(modelFolder);
+		System.out.println("Wrote " + new File(modelFolder, FILE_NAME));
+	}
+
+	EmbeddingTable getEmbeddings() {
+		return embeddings;
+	}
+
+	EmbeddingTable getSuffixes() {
+		return suffixes;
+	}
+
+	EmbeddingTable getCapitalization() {
+		return capitalization;
+	}
+
+	WeightMatrix getClassifier() {
+		return classifier;
+	}
+
+	double[] getBias() {
+		return bias;
+	}
+
+	/**
+	 * True if the folder has a binary model that was written after all the text files it's made from.
+	 */
+	static boolean isUpToDate(final File modelFolder) {
+		final File file = new File(modelFolder, FILE_NAME);
+		if (!file.exists()) {
+			return false;
+		}
+
+		final List<File> sources = new ArrayList<>(Arrays.asList(TaggerEmbeddings.getEmbeddingsFiles(modelFolder)));
+		for (final String name : SOURCE_FILES) {
+			sources.add(new File(modelFolder, name));
+		}
+
+		for (final File source : sources) {
+			if (source.lastModified() > file.lastModified()) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Maps the file into memory. With Precision.INT8, the matrices are quantized into the heap. Otherwise they're read
+	 * from the mapped file.
+	 */
+	static BinaryTaggerModel map(final File file, final Precision precision) throws IOException {
+		final MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			// The mapping stays valid after the channel is closed.
+			buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		buffer.order(BYTE_ORDER);
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new IOException("Not a binary tagger model (version " + VERSION + "): " + file);
+		}
+
+		final EmbeddingTable embeddings = readTable(buffer, precision);
+		final EmbeddingTable suffixes = readTable(buffer, precision);
+		final EmbeddingTable capitalization = readTable(buffer, precision);
+
+		final int rows = buffer.getInt();
+		final int columns = buffer.getInt();
+		final WeightMatrix classifier = readMatrix(buffer, rows, columns, precision);
+
+		final double[] bias = new double[buffer.getInt()];
+		align(buffer, 8);
+		buffer.asDoubleBuffer().get(bias);
+
+		return new BinaryTaggerModel(embeddings, suffixes, capitalization, classifier, bias);
+	}
+
+	private static EmbeddingTable readTable(final ByteBuffer buffer, final Precision precision) {
+		final int size = buffer.getInt();
+		final int dimension = buffer.getInt();
+		final List<String> words = new ArrayList<>(size);
+		for (int row = 0; row < size; row++) {
+			final byte[] word = new byte[buffer.getInt()];
+			buffer.get(word);
+			words.add(new String(word, StandardCharsets.UTF_8));
+		}
+
+		return new EmbeddingTable(new Vocabulary(words), readMatrix(buffer, size, dimension, precision));
+	}
+
+	private static WeightMatrix readMatrix(final ByteBuffer buffer, final int rows, final int columns,
+			final Precision precision) {
+		align(buffer, 4);
+		final FloatBuffer floats = buffer.slice().order(BYTE_ORDER).asFloatBuffer();
+		floats.limit(rows * columns);
+		buffer.position(buffer.position() + 4 * rows * columns);
+
+		final WeightMatrix result = WeightMatrix.wrap(floats, rows, columns);
+		return precision == Precision.INT8 ? WeightMatrix.copyOf(result, precision) : result;
+	}
+
+	private static void align(final ByteBuffer buffer, final int alignment) {
+		while (buffer.position() % alignment != 0) {
+			buffer.get();
+		}
+	}
+
+	/**
+	 * Converts the text files in the model folder to a binary model. The file is written under a temporary name and
+	 * then renamed, so that JVMs which already have the old file mapped aren't affected.
+	 */
+	public static void convert(final File modelFolder) throws IOException {
+		final File file = new File(modelFolder, FILE_NAME);
+		final File temporaryFile = new File(modelFolder, FILE_NAME + ".tmp");
+		try (Output output = new Output(FileChannel.open(temporaryFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+			output.putInt(MAGIC);
+			output.putInt(VERSION);
+
+			writeTable(output, TaggerEmbeddings.loadEmbeddings(true, TaggerEmbeddings.getEmbeddingsFiles(modelFolder)));
+			writeTable(output, TaggerEmbeddings.loadEmbeddings(false, new File(modelFolder, "suffix")));
+			writeTable(output, TaggerEmbeddings.loadEmbeddings(false, new File(modelFolder, "capitals")));
+
+			final File classifierFile = new File(modelFolder, "classifier");
+			final Iterator<String> lines = Util.readFileLineByLine(classifierFile);
+			final int columns = lines.next().split(" ").length;
+			final WeightMatrix classifier = WeightMatrix.make(
+					TaggerEmbeddings.loadCategories(new File(modelFolder, "categories")).size(), columns,
+					Precision.DOUBLE);
+			TaggerEmbeddings.loadMatrix(classifier, classifierFile);
+			output.putInt(classifier.rows);
+			output.putInt(classifier.columns);
+			writeMatrix(output, classifier);
+
+			final double[] bias = new double[classifier.rows];
+			TaggerEmbeddings.loadVector(bias, new File(modelFolder, "bias"));
+			output.putInt(bias.length);
+			output.align(8);
+			for (final double value : bias) {
+				output.putDouble(value);
+			}
+		}
+
+		Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void writeTable(final Output output, final Map<String, double[]> wordToVector)
+			throws IOException {
+		final int dimension = wordToVector.values().iterator().next().length;
+		output.putInt(wordToVector.size());
+		output.putInt(dimension);
+		for (final String word : wordToVector.keySet()) {
+			final byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+			output.putInt(bytes.length);
+			output.putBytes(bytes);
+		}
+
+		output.align(4);
+		for (final double[] vector : wordToVector.values()) {
+			for (final double value : vector) {
+				output.putFloat((float) value);
+			}
+		}
+	}
+
+	private static void writeMatrix(final Output output, final WeightMatrix matrix) throws IOException {
+		output.align(4);
+		for (int row = 0; row < matrix.rows; row++) {
+			for (int column = 0; column < matrix.columns; column++) {
+				output.putFloat((float) matrix.get(row, column));
+			}
+		}
+	}
+
+	/**
+	 * Buffered writes to a file, keeping track of the position for alignment.
+	 */
+	private static class Output implements Closeable {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(BYTE_ORDER);
+		private long position = 0;
+
+		private Output(final FileChannel channel) {
+			this.channel = channel;
+		}
+
+		private void putInt(final int value) throws IOException {
+			makeSpace(4);
+			buffer.putInt(value);
+		}
+
+		private void putFloat(final float value) throws IOException {
+			makeSpace(4);
+			buffer.putFloat(value);
+		}
+
+		private void putDouble(final double value) throws IOException {
+			makeSpace(8);
+			buffer.putDouble(value);
+		}
+
+		private void putBytes(final byte[] bytes) throws IOException {
+			for (final byte value : bytes) {
+				makeSpace(1);
+				buffer.put(value);
+			}
+		}
+
+		/**
+		 * Pads the output with zeros, up to a multiple of the alignment.
+		 */
+		private void align(final int alignment) throws IOException {
+			while ((position + buffer.position()) % alignment != 0) {
+				makeSpace(1);
+				buffer.put((byte) 0);
+			}
+		}
+
+		private void makeSpace(final int bytes) throws IOException {
+			if (buffer.remaining() < bytes) {
+				flush();
+			}
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			position += buffer.remaining();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+			channel.close();
+		}
+	}
+}
@@ -1,6 +1,5 @@
 package edu.uw.easysrl.syntax.tagger;
 
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.primitives.Doubles;
 
@@ -26,6 +25,7 @@ import edu.uw.easysrl.corpora.ParallelCorpusReader;
 import edu.uw.easysrl.main.InputReader.InputWord;
 import edu.uw.easysrl.syntax.grammar.Category;
 import edu.uw.easysrl.syntax.model.CutoffsDictionaryInterface;
+import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings.Precision;
 import edu.uw.easysrl.util.Util;
 
 public abstract class Tagger {
@@ -42,7 +42,10 @@ public abstract class Tagger {
 	 * ignored.
 	 */
 	protected final double beta;
-	protected final Map<String, Collection<Integer>> tagDict;
+	/**
+	 * Indices of the categories allowed for each word.
+	 */
+	protected final Map<String, int[]> tagDict;
 
 	public static void main(final String[] args) throws IOException {
 		// FIXME
@@ -80,6 +83,26 @@ public abstract class Tagger {
 
 	public static Tagger make(final File folder, final double beam, final int maxTagsPerWord,
 			final CutoffsDictionaryInterface cutoffs) throws IOException {
+		return make(folder, beam, maxTagsPerWord, cutoffs, 0);
+	}
+
+	/**
+	 * @param projectionCacheSize
+	 *            For TaggerEmbeddings models, the number of (window position, word) projections to cache, or 0 for no
+	 *            cache (see TaggerEmbeddings.RECOMMENDED_PROJECTION_CACHE_SIZE). Ignored by other taggers.
+	 */
+	public static Tagger make(final File folder, final double beam, final int maxTagsPerWord,
+			final CutoffsDictionaryInterface cutoffs, final int projectionCacheSize) throws IOException {
+		return make(folder, beam, maxTagsPerWord, cutoffs, projectionCacheSize, Precision.DOUBLE);
+	}
+
+	/**
+	 * @param precision
+	 *            For TaggerEmbeddings models, how to store the weights and embeddings. Ignored by other taggers.
+	 */
+	public static Tagger make(final File folder, final double beam, final int maxTagsPerWord,
+			final CutoffsDictionaryInterface cutoffs, final int projectionCacheSize, final Precision precision)
+			throws IOException {
 		if (new File(folder, "taggerflow").exists()) {
 			if (new File(new File(folder, "taggerflow"), "graph.pb").exists()) {
 				return new TaggerflowLSTM(folder, beam, maxTagsPerWord, cutoffs);
@@ -89,7 +112,7 @@ public abstract class Tagger {
 		} else if (new File(folder, "lstm").exists()) {
 			return new TaggerLSTM(folder, beam, maxTagsPerWord, cutoffs);
 		} else {
-			return new TaggerEmbeddings(folder, beam, maxTagsPerWord, cutoffs);
+			return new TaggerEmbeddings(folder, beam, maxTagsPerWord, cutoffs, projectionCacheSize, precision);
 		}
 	}
 
@@ -139,31 +162,33 @@ public abstract class Tagger {
 
 	}
 
-	private Map<String, Collection<Integer>> loadTagDictionary(final CutoffsDictionaryInterface cutoffs) throws IOException {
+	private Map<String, int[]> loadTagDictionary(final CutoffsDictionaryInterface cutoffs) throws IOException {
 		final Map<Category, Integer> catToIndex = new HashMap<>();
 
-		final List<Integer> allIndices = new ArrayList<>(lexicalCategories.size());
+		final int[] allIndices = new int[lexicalCategories.size()];
 		int index = 0;
 		for (final Category c : lexicalCategories) {
 			catToIndex.put(c, index);
-			allIndices.add(index);
+			allIndices[index] = index;
 			index++;
 		}
 
 		// Load a tag dictionary
 		Map<String, Collection<Category>> dict = cutoffs == null ? null : cutoffs.getTagDict();
 
-		final Map<String, Collection<Integer>> tagDict = new HashMap<>();
+		final Map<String, int[]> tagDict = new HashMap<>();
 		if (dict == null) {
 			dict = new HashMap<>();
 			dict.put(TagDict.OTHER_WORDS, lexicalCategories);
 		}
 		for (final Entry<String, Collection<Category>> entry : dict.entrySet()) {
-			final List<Integer> catIndices = new ArrayList<>(entry.getValue().size());
+			final int[] catIndices = new int[entry.getValue().size()];
+			int i = 0;
 			for (final Category cat : entry.getValue()) {
-				catIndices.add(catToIndex.get(cat));
+				catIndices[i] = catToIndex.get(cat);
+				i++;
 			}
-			tagDict.put(entry.getKey(), ImmutableList.copyOf(catIndices));
+			tagDict.put(entry.getKey(), catIndices);
 		}
 
 		tagDict.put(ALL_CATEGORIES, allIndices);
@@ -1,7 +1,6 @@
 package edu.uw.easysrl.syntax.tagger;
 
 import java.io.File;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.ArrayList;
@@ -11,15 +10,19 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import no.uib.cipr.matrix.DenseMatrix;
-import no.uib.cipr.matrix.DenseVector;
-import no.uib.cipr.matrix.Matrix;
-import no.uib.cipr.matrix.Vector;
-
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterators;
 import com.google.common.io.PatternFilenameFilter;
 
 import edu.uw.easysrl.main.InputReader.InputWord;
@@ -28,13 +31,22 @@ import edu.uw.easysrl.syntax.model.CutoffsDictionaryInterface;
 import edu.uw.easysrl.util.Util;
 
 public class TaggerEmbeddings extends Tagger {
-	private final Matrix weightMatrix;
-	private final Vector bias;
+	private final double[] bias;
+
+	private final EmbeddingTable embeddings;
+	private final EmbeddingTable suffixes;
+	private final EmbeddingTable capitalization;
 
-	private final Map<String, double[]> discreteFeatures;
-	private final Map<String, double[]> embeddingsFeatures;
+	/**
+	 * Rows in the embedding tables for positions before and after the sentence.
+	 */
+	private final int leftPadRow;
+	private final int rightPadRow;
+	private final int suffixPadRow;
+	private final int capitalizationPadRow;
 
 	private final int totalFeatures;
+	private final int featuresPerPosition;
 
 	/**
 	 * Number of words forward/backward to use as context (so a value of 3 means the tagger looks at 3+3+1=7 words).
@@ -64,29 +76,132 @@ public class TaggerEmbeddings extends Tagger {
 	 */
 	private final Map<String, Integer> lexicalFeatures;
 
-	private final List<Vector> weightMatrixRows;
+	/**
+	 * The classifier's weights, with one row of totalFeatures for each category.
+	 */
+	private final WeightMatrix weights;
 	private final Map<Category, Integer> categoryToIndex;
 
+	/**
+	 * The beta cutoff is applied to log probabilities.
+	 */
+	private final double logBeta;
+
+	/**
+	 * Number of sentences tagged together by tagBatch(), with one matrix multiply.
+	 */
+	private final static int SENTENCES_PER_BATCH = 32;
+
+	/**
+	 * Block sizes for the matrix multiply. The features for a block of words and the weights for a block of categories
+	 * are small enough to stay in the cache while they're multiplied together. Within a block, each row of weights is
+	 * multiplied by several words at once, using separate accumulators.
+	 */
+	private final static int ROW_BLOCK = 64;
+	private final static int CATEGORY_BLOCK = 32;
+	private final static int WORD_BLOCK = 4;
+
+	/**
+	 * The classifier is linear in the features of each position in the window, so a word's scores are the bias plus
+	 * the product of each window position's block of weights with the features of the word at that position. These
+	 * products ('projections') are cached for each (window position, word), so that tagging a word is mostly
+	 * 2*contextWindow+1 vector additions. The cache is shared by all threads, and bounded, so that only the frequent
+	 * words stay in it. If it's null, every word is scored with the matrix multiply.
+	 */
+	private final LoadingCache<ProjectionKey, double[]> projectionCache;
+
+	/**
+	 * Projections of the padding before and after the sentence, for each window position.
+	 */
+	private final double[][] leftPadProjections;
+	private final double[][] rightPadProjections;
+
+	/**
+	 * A reasonable number of (window position, word) projections to cache, for callers that want the cache. Each
+	 * projection has a score for every category, so this is about 70MB with 425 categories.
+	 */
+	public final static int RECOMMENDED_PROJECTION_CACHE_SIZE = 20000;
+
+	/**
+	 * How the classifier weights and the embeddings are stored in memory. FLOAT uses half the memory of DOUBLE, and
+	 * INT8 an eighth (plus a scale for each row), at some cost in accuracy.
+	 */
+	public enum Precision {
+		DOUBLE, FLOAT, INT8
+	}
+
+	/**
+	 * Creates a tagger without the projection cache, which scores every word with a matrix multiply.
+	 */
 	public TaggerEmbeddings(final File modelFolder, final double beta, final int maxTagsPerWord,
 			final CutoffsDictionaryInterface cutoffs) throws IOException {
+		this(modelFolder, beta, maxTagsPerWord, cutoffs, 0);
+	}
+
+	public TaggerEmbeddings(final File modelFolder, final double beta, final int maxTagsPerWord,
+			final CutoffsDictionaryInterface cutoffs, final int projectionCacheSize) throws IOException {
+		this(modelFolder, beta, maxTagsPerWord, cutoffs, projectionCacheSize, Precision.DOUBLE);
+	}
+
+	/**
+	 * @param projectionCacheSize
+	 *            Maximum number of (window position, word) projections to cache, or 0 to score every word with a
+	 *            matrix multiply. The cache adds the projections up in a different order from the multiply, so scores
+	 *            can differ in the last few bits.
+	 * @param precision
+	 *            How to store the weights and embeddings. If the model folder contains a BinaryTaggerModel that's newer
+	 *            than the text files, it's loaded from there instead. Its values are floats, so DOUBLE and FLOAT both read them
+	 *            straight from the memory-mapped file, and INT8 copies them to the heap.
+	 */
+	public TaggerEmbeddings(final File modelFolder, final double beta, final int maxTagsPerWord,
+			final CutoffsDictionaryInterface cutoffs, final int projectionCacheSize, final Precision precision)
+			throws IOException {
 		super(cutoffs, beta, loadCategories(new File(modelFolder, "categories")), maxTagsPerWord);
+		this.logBeta = Math.log(beta);
 		try {
-			final FilenameFilter embeddingsFileFilter = new PatternFilenameFilter("embeddings.*");
-
 			// If we're using POS tags or lexical features, load l.
 			this.posFeatures = loadSparseFeatures(new File(modelFolder + "/postags"));
 			this.lexicalFeatures = loadSparseFeatures(new File(modelFolder + "/frequentwords"));
 
-			// Load word embeddings.
-			embeddingsFeatures = loadEmbeddings(true, modelFolder.listFiles(embeddingsFileFilter));
+			final File binaryModelFile = new File(modelFolder, BinaryTaggerModel.FILE_NAME);
+			final BinaryTaggerModel binaryModel;
+			if (!binaryModelFile.exists()) {
+				binaryModel = null;
+			} else if (!BinaryTaggerModel.isUpToDate(modelFolder)) {
+				System.err.println("Ignoring " + binaryModelFile
+						+ ", because it's older than the text files in the model. Run BinaryTaggerModel to update it.");
+				binaryModel = null;
+			} else {
+				if (precision == Precision.DOUBLE) {
+					System.err.println("Loading the tagger from " + binaryModelFile
+							+ ", which only has float precision, although double precision was requested.");
+				}
+				binaryModel = BinaryTaggerModel.map(binaryModelFile, precision);
+			}
+
+			if (binaryModel == null) {
+				// Load word embeddings.
+				embeddings = new EmbeddingTable(loadEmbeddings(true, getEmbeddingsFiles(modelFolder)), precision);
+
+				// Load embeddings for capitalization and suffix features.
+				capitalization = new EmbeddingTable(loadEmbeddings(false, new File(modelFolder, "capitals")),
+						precision);
+				suffixes = new EmbeddingTable(loadEmbeddings(false, new File(modelFolder, "suffix")), precision);
+			} else {
+				embeddings = binaryModel.getEmbeddings();
+				capitalization = binaryModel.getCapitalization();
+				suffixes = binaryModel.getSuffixes();
+			}
+
+			leftPadRow = embeddings.getRow(leftPad);
+			rightPadRow = embeddings.getRow(rightPad);
+			suffixPadRow = suffixes.getRow(suffixPad);
+			capitalizationPadRow = capitalization.getRow(capitalizedPad);
 
-			// Load embeddings for capitalization and suffix features.
-			discreteFeatures = new HashMap<>();
-			discreteFeatures.putAll(loadEmbeddings(false, new File(modelFolder, "capitals")));
-			discreteFeatures.putAll(loadEmbeddings(false, new File(modelFolder, "suffix")));
-			totalFeatures = (embeddingsFeatures.get(unknownLower).length + discreteFeatures.get(unknownSuffix).length
-					+ discreteFeatures.get(capsLower).length + posFeatures.size() + lexicalFeatures.size())
+			totalFeatures = (embeddings.getDimension() + suffixes.getDimension() + capitalization.getDimension()
+					+ posFeatures.size() + lexicalFeatures.size())
 					* (2 * contextWindow + 1);
+			featuresPerPosition = totalFeatures / (2 * contextWindow + 1);
 
 			// Load the list of categories used by the model.
 			categoryToIndex = new HashMap<>();
@@ -95,21 +210,39 @@ public class TaggerEmbeddings extends Tagger {
 			}
 
 			// Load the weight matrix used by the classifier.
-			weightMatrix = new DenseMatrix(lexicalCategories.size(), totalFeatures);
-			loadMatrix(weightMatrix, new File(modelFolder, "classifier"));
+			if (binaryModel == null) {
+				weights = WeightMatrix.make(lexicalCategories.size(), totalFeatures, precision);
+				loadMatrix(weights, new File(modelFolder, "classifier"));
 
-			weightMatrixRows = new ArrayList<>(lexicalCategories.size());
-			for (int i = 0; i < lexicalCategories.size(); i++) {
-				final Vector row = new DenseVector(totalFeatures);
-				for (int j = 0; j < totalFeatures; j++) {
-					row.set(j, weightMatrix.get(i, j));
-				}
-				weightMatrixRows.add(row);
+				bias = new double[lexicalCategories.size()];
+				loadVector(bias, new File(modelFolder, "bias"));
+			} else {
+				weights = binaryModel.getClassifier();
+				bias = binaryModel.getBias();
 			}
 
-			bias = new DenseVector(lexicalCategories.size());
-
-			loadVector(bias, new File(modelFolder, "bias"));
+			if (projectionCacheSize > 0) {
+				projectionCache = CacheBuilder.newBuilder().maximumSize(projectionCacheSize).recordStats()
+						.build(new CacheLoader<ProjectionKey, double[]>() {
+							@Override
+							public double[] load(final ProjectionKey key) {
+								return getProjection(key.position,
+										Collections.singletonList(new InputWord(key.word, key.pos, null)), 0);
+							}
+						});
+
+				final List<InputWord> noWords = Collections.emptyList();
+				leftPadProjections = new double[2 * contextWindow + 1][];
+				rightPadProjections = new double[2 * contextWindow + 1][];
+				for (int position = 0; position < 2 * contextWindow + 1; position++) {
+					leftPadProjections[position] = getProjection(position, noWords, -1);
+					rightPadProjections[position] = getProjection(position, noWords, 0);
+				}
+			} else {
+				projectionCache = null;
+				leftPadProjections = null;
+				rightPadProjections = null;
+			}
 
 		} catch (final Exception e) {
 			throw new RuntimeException(e);
@@ -131,30 +264,36 @@ public class TaggerEmbeddings extends Tagger {
 		return posFeatures;
 	}
 
+	static File[] getEmbeddingsFiles(final File modelFolder) {
+		return modelFolder.listFiles(new PatternFilenameFilter("embeddings.*"));
+	}
+
 	/**
 	 * Loads the neural network weight matrix.
 	 */
-	private void loadMatrix(final Matrix matrix, final File file) throws IOException {
+	static void loadMatrix(final WeightMatrix matrix, final File file) throws IOException {
 		final Iterator<String> lines = Util.readFileLineByLine(file);
+		final double[] values = new double[matrix.columns];
 		int row = 0;
 		while (lines.hasNext()) {
 			final String line = lines.next();
 			final String[] fields = line.split(" ");
 			for (int i = 0; i < fields.length; i++) {
-				matrix.set(row, i, Double.valueOf(fields[i]));
+				values[i] = Double.valueOf(fields[i]);
 			}
 
+			matrix.setRow(row, values);
 			row++;
 		}
 	}
 
-	private void loadVector(final Vector vector, final File file) throws IOException {
+	static void loadVector(final double[] vector, final File file) throws IOException {
 		final Iterator<String> lines = Util.readFileLineByLine(file);
 		int row = 0;
 		while (lines.hasNext()) {
 
 			final String data = lines.next();
-			vector.set(row, Double.valueOf(data));
+			vector[row] = Double.valueOf(data);
 			row++;
 		}
 	}
@@ -170,48 +309,247 @@ public class TaggerEmbeddings extends Tagger {
 	 */
 	@Override
 	public List<List<ScoredCategory>> tag(final List<InputWord> words) {
-		final List<List<ScoredCategory>> result = new ArrayList<>(words.size());
+		return tagSentences(Collections.singletonList(words)).get(0);
+	}
+
+	/**
+	 * Tags the sentences in batches of SENTENCES_PER_BATCH, so that each batch is scored together.
+	 */
+	@Override
+	public Stream<List<List<ScoredCategory>>> tagBatch(final Stream<List<InputWord>> sentences) {
+		final Iterator<List<List<ScoredCategory>>> result = Iterators.concat(Iterators.transform(
+				Iterators.partition(sentences.iterator(), SENTENCES_PER_BATCH), batch -> tagSentences(batch)
+						.iterator()));
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(result, Spliterator.ORDERED), false);
+	}
+
+	/**
+	 * Scores every category for every word in the sentences, either from the cached projections or with one matrix
+	 * multiply. The tag dictionary is applied afterwards.
+	 */
+	private List<List<List<ScoredCategory>>> tagSentences(final List<List<InputWord>> sentences) {
+		int numberOfWords = 0;
+		for (final List<InputWord> words : sentences) {
+			numberOfWords += words.size();
+		}
 
-		for (int wordIndex = 0; wordIndex < words.size(); wordIndex++) {
-			result.add(getTagsForWord(getVectorForWord(words, wordIndex), words.get(wordIndex)));
+		final int numberOfCategories = lexicalCategories.size();
+		final double[] scores = projectionCache == null ? getScoresByMultiplying(sentences, numberOfWords)
+				: getScoresFromProjections(sentences, numberOfWords);
+
+		final List<List<List<ScoredCategory>>> result = new ArrayList<>(sentences.size());
+		int row = 0;
+		for (final List<InputWord> words : sentences) {
+			final List<List<ScoredCategory>> tags = new ArrayList<>(words.size());
+			for (final InputWord word : words) {
+				tags.add(getTagsForWord(scores, row * numberOfCategories, word));
+				row++;
+			}
+			result.add(tags);
 		}
 
 		return result;
 	}
 
-	private Vector getVectorForWord(final List<InputWord> words, final int wordIndex) {
-		final double[] vector = new double[totalFeatures];
+	/**
+	 * Builds a feature matrix for all the words in the sentences, with one row per word, and multiplies it by the
+	 * weights.
+	 */
+	private double[] getScoresByMultiplying(final List<List<InputWord>> sentences, final int numberOfWords) {
+		final double[] features = new double[numberOfWords * totalFeatures];
+		final StringBuilder scratch = new StringBuilder();
+		int row = 0;
+		for (final List<InputWord> words : sentences) {
+			final TokenRows tokenRows = new TokenRows(words, scratch);
+			for (int wordIndex = 0; wordIndex < words.size(); wordIndex++) {
+				addFeaturesForWord(words, tokenRows, wordIndex, features, row * totalFeatures);
+				row++;
+			}
+		}
+
+		return multiply(features, numberOfWords);
+	}
+
+	/**
+	 * Adds up the projections of the words in each word's window. The results are the same as
+	 * getScoresByMultiplying(), up to rounding.
+	 */
+	private double[] getScoresFromProjections(final List<List<InputWord>> sentences, final int numberOfWords) {
+		final int numberOfCategories = lexicalCategories.size();
+		final double[] result = new double[numberOfWords * numberOfCategories];
+		final double[][] projections = new double[2 * contextWindow + 1][];
+		int offset = 0;
+		for (final List<InputWord> words : sentences) {
+			for (int wordIndex = 0; wordIndex < words.size(); wordIndex++) {
+				for (int position = 0; position < projections.length; position++) {
+					final int sentencePosition = wordIndex - contextWindow + position;
+					if (sentencePosition < 0) {
+						projections[position] = leftPadProjections[position];
+					} else if (sentencePosition >= words.size()) {
+						projections[position] = rightPadProjections[position];
+					} else {
+						final InputWord word = words.get(sentencePosition);
+						projections[position] = projectionCache.getUnchecked(new ProjectionKey(position, word.word,
+								posFeatures.isEmpty() ? null : word.pos));
+					}
+				}
 
-		int vectorIndex = 0;
-		for (int sentencePosition = wordIndex - contextWindow; sentencePosition <= wordIndex
-				+ contextWindow; sentencePosition++) {
-			vectorIndex = addToFeatureVector(vectorIndex, vector, sentencePosition, words);
-
-			// If using lexical features, update the vector.
-			if (lexicalFeatures.size() > 0) {
-				if (sentencePosition >= 0 && sentencePosition < words.size()) {
-					final Integer index = lexicalFeatures.get(words.get(sentencePosition).word);
-					if (index != null) {
-						vector[vectorIndex + index] = 1;
+				System.arraycopy(bias, 0, result, offset, numberOfCategories);
+				for (final double[] projection : projections) {
+					for (int cat = 0; cat < numberOfCategories; cat++) {
+						result[offset + cat] += projection[cat];
 					}
 				}
-				vectorIndex = vectorIndex + lexicalFeatures.size();
+
+				offset += numberOfCategories;
 			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * The product of the weights for a window position with the features of the word at the given index, which may be
+	 * outside the sentence (for padding).
+	 */
+	private double[] getProjection(final int position, final List<InputWord> words, final int sentencePosition) {
+		final double[] features = new double[featuresPerPosition];
+		addFeaturesForPosition(words, new TokenRows(words, new StringBuilder()), sentencePosition, features, 0);
+
+		final int numberOfCategories = lexicalCategories.size();
+		final double[] result = new double[numberOfCategories];
+		final int blockStart = position * featuresPerPosition;
+		for (int cat = 0; cat < numberOfCategories; cat++) {
+			result[cat] = weights.dot(cat, blockStart, features, 0, featuresPerPosition);
+		}
+
+		return result;
+	}
 
-			// If using POS-tag features, update the vector.
-			if (posFeatures.size() > 0) {
-				if (sentencePosition >= 0 && sentencePosition < words.size()) {
-					vector[vectorIndex + posFeatures.get(words.get(sentencePosition).pos)] = 1;
+	/**
+	 * Hit rate and other statistics for the cache of projections, or null if there's no cache.
+	 */
+	public CacheStats getProjectionCacheStats() {
+		return projectionCache == null ? null : projectionCache.stats();
+	}
+
+	private static class ProjectionKey {
+		private final int position;
+		private final String word;
+		private final String pos;
+		private final int hashCode;
+
+		private ProjectionKey(final int position, final String word, final String pos) {
+			this.position = position;
+			this.word = word;
+			this.pos = pos;
+			this.hashCode = 31 * (31 * position + word.hashCode()) + (pos == null ? 0 : pos.hashCode());
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			final ProjectionKey other = (ProjectionKey) obj;
+			return position == other.position && word.equals(other.word) && Objects.equals(pos, other.pos);
+		}
+	}
+
+	/**
+	 * Computes the score of every category for each row of the feature matrix, i.e. features * weights^T + bias. The
+	 * result has one row of scores for each row of features.
+	 */
+	private double[] multiply(final double[] features, final int numberOfRows) {
+		final int numberOfCategories = lexicalCategories.size();
+		final double[] result = new double[numberOfRows * numberOfCategories];
+		final double[] dotProducts = new double[WORD_BLOCK];
+
+		for (int rowBlock = 0; rowBlock < numberOfRows; rowBlock += ROW_BLOCK) {
+			final int rowBlockEnd = Math.min(rowBlock + ROW_BLOCK, numberOfRows);
+
+			for (int categoryBlock = 0; categoryBlock < numberOfCategories; categoryBlock += CATEGORY_BLOCK) {
+				final int categoryBlockEnd = Math.min(categoryBlock + CATEGORY_BLOCK, numberOfCategories);
+
+				int row = rowBlock;
+				for (; row + WORD_BLOCK <= rowBlockEnd; row += WORD_BLOCK) {
+					final int row0 = row * totalFeatures;
+					final int row1 = row0 + totalFeatures;
+					final int row2 = row1 + totalFeatures;
+					final int row3 = row2 + totalFeatures;
+					for (int cat = categoryBlock; cat < categoryBlockEnd; cat++) {
+						weights.dot4(cat, features, row0, row1, row2, row3, dotProducts);
+						result[row * numberOfCategories + cat] = dotProducts[0] + bias[cat];
+						result[(row + 1) * numberOfCategories + cat] = dotProducts[1] + bias[cat];
+						result[(row + 2) * numberOfCategories + cat] = dotProducts[2] + bias[cat];
+						result[(row + 3) * numberOfCategories + cat] = dotProducts[3] + bias[cat];
+					}
 				}
 
-				vectorIndex = vectorIndex + posFeatures.size();
+				// Remaining rows.
+				for (; row < rowBlockEnd; row++) {
+					for (int cat = categoryBlock; cat < categoryBlockEnd; cat++) {
+						result[row * numberOfCategories + cat] = score(features, row * totalFeatures, cat);
+					}
+				}
 			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Score of one category, for the row of features starting at the given offset.
+	 */
+	private double score(final double[] features, final int offset, final int cat) {
+		return weights.dot(cat, 0, features, offset, totalFeatures) + bias[cat];
+	}
 
+	/**
+	 * Writes the features for the word at the specified index into the vector, starting at the given offset.
+	 */
+	private void addFeaturesForWord(final List<InputWord> words, final TokenRows tokenRows, final int wordIndex,
+			final double[] vector, final int offset) {
+		int vectorIndex = offset;
+		for (int sentencePosition = wordIndex - contextWindow; sentencePosition <= wordIndex
+				+ contextWindow; sentencePosition++) {
+			vectorIndex = addFeaturesForPosition(words, tokenRows, sentencePosition, vector, vectorIndex);
 		}
 		// System.out.println(words.get(wordIndex).word+ " " +
 		// Doubles.asList(vector));
+	}
+
+	/**
+	 * Writes the features for the word at one position in a window into the vector, and returns the next empty index
+	 * in the vector. The position is allowed to be outside the sentence range.
+	 */
+	private int addFeaturesForPosition(final List<InputWord> words, final TokenRows tokenRows,
+			final int sentencePosition, final double[] vector, int vectorIndex) {
+		vectorIndex = addToFeatureVector(vectorIndex, vector, sentencePosition, tokenRows);
+
+		// If using lexical features, update the vector.
+		if (lexicalFeatures.size() > 0) {
+			if (sentencePosition >= 0 && sentencePosition < words.size()) {
+				final int index = tokenRows.frequentWords[sentencePosition];
+				if (index >= 0) {
+					vector[vectorIndex + index] = 1;
+				}
+			}
+			vectorIndex = vectorIndex + lexicalFeatures.size();
+		}
+
+		// If using POS-tag features, update the vector.
+		if (posFeatures.size() > 0) {
+			if (sentencePosition >= 0 && sentencePosition < words.size()) {
+				vector[vectorIndex + tokenRows.posTags[sentencePosition]] = 1;
+			}
 
-		return new DenseVector(vector);
+			vectorIndex = vectorIndex + posFeatures.size();
+		}
+
+		return vectorIndex;
 	}
 
 	/**
@@ -219,21 +557,77 @@ public class TaggerEmbeddings extends Tagger {
 	 * vector.
 	 */
 	private int addToFeatureVector(int vectorIndex, final double[] vector, final int sentencePosition,
-			final List<InputWord> words) {
-		final double[] embedding = getEmbedding(words, sentencePosition);
-		vectorIndex = addToVector(vectorIndex, vector, embedding);
-		final double[] suffix = getSuffix(words, sentencePosition);
-		vectorIndex = addToVector(vectorIndex, vector, suffix);
-		final double[] caps = getCapitalization(words, sentencePosition);
-		vectorIndex = addToVector(vectorIndex, vector, caps);
+			final TokenRows tokenRows) {
+		final int embedding;
+		final int suffix;
+		final int caps;
+		if (sentencePosition < 0) {
+			embedding = leftPadRow;
+			suffix = suffixPadRow;
+			caps = capitalizationPadRow;
+		} else if (sentencePosition >= tokenRows.embeddings.length) {
+			embedding = rightPadRow;
+			suffix = suffixPadRow;
+			caps = capitalizationPadRow;
+		} else {
+			embedding = tokenRows.embeddings[sentencePosition];
+			suffix = tokenRows.suffixes[sentencePosition];
+			caps = tokenRows.capitalization[sentencePosition];
+		}
+
+		vectorIndex = embeddings.vectors.copyRow(embedding, vector, vectorIndex);
+		vectorIndex = suffixes.vectors.copyRow(suffix, vector, vectorIndex);
+		vectorIndex = capitalization.vectors.copyRow(caps, vector, vectorIndex);
 
 		return vectorIndex;
 	}
 
-	private int addToVector(int index, final double[] vector, final double[] embedding) {
-		System.arraycopy(embedding, 0, vector, index, embedding.length);
-		index = index + embedding.length;
-		return index;
+	/**
+	 * The rows of each word's embedding, suffix and capitalization vectors, and the indices of its sparse lexical and
+	 * POS features, for all the words in a sentence. They're looked up once per sentence, and then used in every
+	 * window that the word appears in.
+	 */
+	private class TokenRows {
+		private final int[] embeddings;
+		private final int[] suffixes;
+		private final int[] capitalization;
+
+		/**
+		 * Index of each word's lexical feature, or -1 if it isn't a frequent word.
+		 */
+		private final int[] frequentWords;
+
+		/**
+		 * Index of each word's POS-tag feature.
+		 */
+		private final int[] posTags;
+
+		/**
+		 * @param scratch
+		 *            Reused for building the normalized words and suffixes, so that they don't need new Strings.
+		 */
+		private TokenRows(final List<InputWord> words, final StringBuilder scratch) {
+			this.embeddings = new int[words.size()];
+			this.suffixes = new int[words.size()];
+			this.capitalization = new int[words.size()];
+			this.frequentWords = new int[words.size()];
+			this.posTags = new int[words.size()];
+			for (int i = 0; i < words.size(); i++) {
+				final String word = translateBrackets(words.get(i).word);
+				embeddings[i] = getEmbedding(word, scratch);
+				suffixes[i] = getSuffix(word, scratch);
+				capitalization[i] = getCapitalization(word);
+
+				if (lexicalFeatures.size() > 0) {
+					final Integer index = lexicalFeatures.get(words.get(i).word);
+					frequentWords[i] = index == null ? -1 : index;
+				}
+
+				if (posFeatures.size() > 0) {
+					posTags[i] = posFeatures.get(words.get(i).pos);
+				}
+			}
+		}
 	}
 
 	/**
@@ -244,7 +638,7 @@ public class TaggerEmbeddings extends Tagger {
 	 * @return
 	 * @throws IOException
 	 */
-	private Map<String, double[]> loadEmbeddings(final boolean normalize, final File... embeddingsFiles)
+	static Map<String, double[]> loadEmbeddings(final boolean normalize, final File... embeddingsFiles)
 			throws IOException {
 		final Map<String, double[]> embeddingsMap = new HashMap<>();
 		// Allow sharded input, by allowing the embeddings to be split across
@@ -276,39 +670,42 @@ public class TaggerEmbeddings extends Tagger {
 	/**
 	 * Normalizes words by lower-casing and replacing numbers with '#'/
 	 */
-	private final static Pattern numbers = Pattern.compile("[0-9]");
-
-	private String normalize(String word) {
-		word = numbers.matcher(word.toLowerCase()).replaceAll("#");
-		return word;
+	private static String normalize(final String word) {
+		final StringBuilder result = new StringBuilder(word.length());
+		appendNormalized(word, result);
+		return result.toString();
 	}
 
-	/**
-	 * Loads the embedding for the word at the specified index in the sentence. The index is allowed to be outside the
-	 * sentence range, in which case the appropriate 'padding' embedding is returned.
-	 */
-	private double[] getEmbedding(final List<InputWord> words, final int index) {
-		if (index < 0) {
-			return embeddingsFeatures.get(leftPad);
-		}
-		if (index >= words.size()) {
-			return embeddingsFeatures.get(rightPad);
+	private static void appendNormalized(final String word, final StringBuilder result) {
+		for (int i = 0; i < word.length(); i++) {
+			final char c = word.charAt(i);
+			result.append('0' <= c && c <= '9' ? '#' : Character.toLowerCase(c));
 		}
-		String word = words.get(index).word;
+	}
 
-		word = translateBrackets(word);
+	private static void appendLowerCase(final String word, final int start, final StringBuilder result) {
+		for (int i = start; i < word.length(); i++) {
+			result.append(Character.toLowerCase(word.charAt(i)));
+		}
+	}
 
-		final double[] result = embeddingsFeatures.get(normalize(word));
-		if (result == null) {
+	/**
+	 * Finds the embedding for a word, whose brackets have already been translated.
+	 */
+	private int getEmbedding(final String word, final StringBuilder scratch) {
+		scratch.setLength(0);
+		appendNormalized(word, scratch);
+		final int result = embeddings.getRow(scratch);
+		if (result == -1) {
 			final char firstCharacter = word.charAt(0);
 			final boolean isLower = 'a' <= firstCharacter && firstCharacter <= 'z';
 			final boolean isUpper = 'A' <= firstCharacter && firstCharacter <= 'Z';
 			if (isLower) {
-				return embeddingsFeatures.get(unknownLower);
+				return embeddings.getRow(unknownLower);
 			} else if (isUpper) {
-				return embeddingsFeatures.get(unknownUpper);
+				return embeddings.getRow(unknownUpper);
 			} else {
-				return embeddingsFeatures.get(unknownSpecial);
+				return embeddings.getRow(unknownSpecial);
 			}
 		}
 
@@ -316,53 +713,35 @@ public class TaggerEmbeddings extends Tagger {
 	}
 
 	/**
-	 * Loads the embedding for a word's 2-character suffix. The index is allowed to be outside the sentence range, in
-	 * which case the appropriate 'padding' embedding is returned.
+	 * Finds the embedding for a word's 2-character suffix.
 	 */
-	private double[] getSuffix(final List<InputWord> words, final int index) {
-		String suffix = null;
-		if (index < 0 || index >= words.size()) {
-			suffix = suffixPad;
+	private int getSuffix(final String word, final StringBuilder scratch) {
+		scratch.setLength(0);
+		if (word.length() > 1) {
+			appendLowerCase(word, word.length() - 2, scratch);
 		} else {
-			String word = words.get(index).word;
-
-			word = translateBrackets(word);
-
-			if (word.length() > 1) {
-				suffix = (word.substring(word.length() - 2, word.length()));
-			} else {
-				// Padding for words of length 1.
-				suffix = ("_" + word.substring(0, 1));
-			}
+			// Padding for words of length 1.
+			scratch.append('_');
+			appendLowerCase(word, 0, scratch);
 		}
 
-		double[] result = discreteFeatures.get(suffix.toLowerCase());
-		if (result == null) {
-			result = discreteFeatures.get(unknownSuffix);
+		int result = suffixes.getRow(scratch);
+		if (result == -1) {
+			result = suffixes.getRow(unknownSuffix);
 		}
 		return result;
 	}
 
 	/**
-	 * Loads the embedding for a word's capitalization. The index is allowed to be outside the sentence range, in which
-	 * case the appropriate 'padding' embedding is returned.
+	 * Finds the embedding for a word's capitalization.
 	 */
-	private double[] getCapitalization(final List<InputWord> words, final int index) {
-		String key;
-		if (index < 0 || index >= words.size()) {
-			key = capitalizedPad;
+	private int getCapitalization(final String word) {
+		final char c = word.charAt(0);
+		if ('A' <= c && c <= 'Z') {
+			return capitalization.getRow(capsUpper);
 		} else {
-			final String word = words.get(index).word;
-
-			final char c = word.charAt(0);
-			if ('A' <= c && c <= 'Z') {
-				key = capsUpper;
-			} else {
-				key = capsLower;
-			}
+			return capitalization.getRow(capsLower);
 		}
-
-		return discreteFeatures.get(key);
 	}
 
 	/**
@@ -371,81 +750,108 @@ public class TaggerEmbeddings extends Tagger {
 	public double[] getWeightVector() {
 		final double[] result = new double[(totalFeatures + 1) * lexicalCategories.size()];
 		int index = 0;
-		for (final Vector vector : weightMatrixRows) {
-			for (int i = 0; i < vector.size(); i++) {
-				result[index] = vector.get(i);
+		for (int cat = 0; cat < lexicalCategories.size(); cat++) {
+			for (int i = 0; i < totalFeatures; i++) {
+				result[index] = weights.get(cat, i);
 				index++;
 			}
 		}
 
-		for (int i = 0; i < bias.size(); i++) {
-			result[index] = bias.get(i);
-			index++;
+		System.arraycopy(bias, 0, result, index, bias.length);
+		return result;
+	}
+
+	/**
+	 * Approximate memory used by the classifier's weights and the embedding vectors, in bytes.
+	 */
+	public long getParameterBytes() {
+		return weights.getBytes() + 8L * bias.length + embeddings.vectors.getBytes() + suffixes.vectors.getBytes()
+				+ capitalization.vectors.getBytes();
+	}
+
+	/**
+	 * Vectors for a vocabulary of strings, stored as the rows of a WeightMatrix.
+	 */
+	static class EmbeddingTable {
+		private final Vocabulary vocabulary;
+		private final WeightMatrix vectors;
+
+		EmbeddingTable(final Vocabulary vocabulary, final WeightMatrix vectors) {
+			this.vocabulary = vocabulary;
+			this.vectors = vectors;
+		}
+
+		private EmbeddingTable(final Map<String, double[]> wordToVector, final Precision precision) {
+			final List<String> words = new ArrayList<>(wordToVector.keySet());
+			this.vocabulary = new Vocabulary(words);
+			this.vectors = WeightMatrix.make(words.size(), wordToVector.values().iterator().next().length,
+					precision);
+			for (int row = 0; row < words.size(); row++) {
+				vectors.setRow(row, wordToVector.get(words.get(row)));
+			}
+		}
+
+		/**
+		 * The word's row in the vectors, or -1 if it isn't in the vocabulary.
+		 */
+		private int getRow(final CharSequence word) {
+			return vocabulary.get(word);
 		}
 
-		return result;
+		private int getDimension() {
+			return vectors.columns;
+		}
 	}
 
 	/**
 	 * Returns a list of @SyntaxTreeNode for this word, sorted by their probability.
 	 *
-	 * @param vector
-	 *            A vector
+	 * @param scores
+	 *            Scores for every category
+	 * @param offset
+	 *            The position of the word's first score in the scores array.
 	 * @param word
 	 *            The word itself.
-	 * @param wordIndex
-	 *            The position of the word in the sentence.
-	 * @return
 	 * @return
 	 */
-	private List<ScoredCategory> getTagsForWord(final Vector vector, final InputWord word) {
+	private List<ScoredCategory> getTagsForWord(final double[] scores, final int offset, final InputWord word) {
 
 		// If we're using a tag dictionary, consider those tags --- otherwise,
 		// try all tags.
-		Collection<Integer> possibleCategories = tagDict.get(word.word);
+		int[] possibleCategories = tagDict.get(word.word);
 		if (possibleCategories == null) {
 			possibleCategories = tagDict.get(TagDict.OTHER_WORDS);
 		}
 
-		return getTagsForWord(vector, possibleCategories);
+		return getTagsForWord(scores, offset, possibleCategories);
 
 	}
 
-	private List<ScoredCategory> getTagsForWord(final Vector vector, final Collection<Integer> possibleCategories) {
-		final int size = Math.min(maxTagsPerWord, possibleCategories.size());
-
-		double bestScore = 0.0;
-
-		List<ScoredCategory> result = new ArrayList<>(possibleCategories.size());
-		for (final Integer cat : possibleCategories) {
-			final double score = weightMatrixRows.get(cat).dot(vector) + bias.get(cat);
-			result.add(new ScoredCategory(lexicalCategories.get(cat), score));
-			bestScore = Math.max(bestScore, score);
-		}
-
-		Collections.sort(result);
-		if (result.size() > size) {
-			result = result.subList(0, size);
-		}
-
-		final double threshold = beta * Math.exp(bestScore);
-		for (int i = 2; i < result.size(); i++) {
-			// TODO binary search
-			if (Math.exp(result.get(i).getScore()) < threshold) {
-				result = result.subList(0, i);
-				break;
-			}
-		}
-
-		return result;
+	private List<ScoredCategory> getTagsForWord(final double[] scores, final int offset,
+			final int[] possibleCategories) {
+		return TopCategories.forCurrentThread().select(scores, offset, possibleCategories, maxTagsPerWord, logBeta,
+				lexicalCategories);
 	}
 
 	@Override
 	public Map<Category, Double> getCategoryScores(final List<InputWord> sentence, final int wordIndex,
 			final double weight, final Collection<Category> categories) {
 
-		final List<ScoredCategory> scoredCats = getTagsForWord(getVectorForWord(sentence, wordIndex),
-				categories.stream().map(x -> categoryToIndex.get(x)).collect(Collectors.toList()));
+		// Only the words in the window are needed.
+		final int windowStart = Math.max(0, wordIndex - contextWindow);
+		final List<InputWord> window = sentence.subList(windowStart,
+				Math.min(sentence.size(), wordIndex + contextWindow + 1));
+		final double[] features = new double[totalFeatures];
+		addFeaturesForWord(window, new TokenRows(window, new StringBuilder()), wordIndex - windowStart, features, 0);
+
+		// Only score the requested categories.
+		final int[] categoryIndices = categories.stream().mapToInt(x -> categoryToIndex.get(x)).toArray();
+		final double[] scores = new double[lexicalCategories.size()];
+		for (final int cat : categoryIndices) {
+			scores[cat] = score(features, 0, cat);
+		}
+
+		final List<ScoredCategory> scoredCats = getTagsForWord(scores, 0, categoryIndices);
 		return scoredCats.stream().collect(Collectors.toMap(ScoredCategory::getCategory, x -> x.getScore() * weight));
 	}
 
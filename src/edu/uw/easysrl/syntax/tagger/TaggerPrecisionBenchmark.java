@@ -0,0 +1,98 @@
+package edu.uw.easysrl.syntax.tagger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import edu.uw.easysrl.main.EasySRL.InputFormat;
+import edu.uw.easysrl.main.InputReader;
+import edu.uw.easysrl.main.InputReader.InputToParser;
+import edu.uw.easysrl.main.InputReader.InputWord;
+import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.tagger.Tagger.ScoredCategory;
+import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings.Precision;
+
+/**
+ * Compares the memory, speed and accuracy of TaggerEmbeddings with each Precision, on held-out sentences in the
+ * "word|POS|SUPERTAG" format. Agreement and score differences are measured against the DOUBLE tagger.
+ *
+ * The accuracy is only as meaningful as the model and the held-out file. The numbers quoted when the precisions were
+ * added came from a synthetic model, whose gold tags were its own DOUBLE 1-best, so they need re-measuring on a trained
+ * model.
+ *
+ * Usage: TaggerPrecisionBenchmark model_folder held_out_file [beta]
+ */
+public class TaggerPrecisionBenchmark {
+
+	public static void main(final String[] args) throws IOException {
+		final File modelFolder = new File(args[0]);
+		final double beta = args.length > 2 ? Double.valueOf(args[2]) : 0.0001;
+
+		final List<List<InputWord>> sentences = new ArrayList<>();
+		final List<Category> goldCategories = new ArrayList<>();
+		for (final InputToParser input : InputReader.make(InputFormat.GOLD).readFile(new File(args[1]))) {
+			sentences.add(input.getInputWords());
+			goldCategories.addAll(input.getGoldCategories());
+		}
+
+		System.out.println("Model: " + modelFolder + "  held-out: " + args[1] + " (" + goldCategories.size()
+				+ " words). Accuracy is against these gold tags, so it only reflects real accuracy for a trained model"
+				+ " and real held-out data, not a synthetic model.");
+
+		List<List<ScoredCategory>> baseline = null;
+		for (final Precision precision : Precision.values()) {
+			final TaggerEmbeddings tagger = new TaggerEmbeddings(modelFolder, beta, 50, null,
+					TaggerEmbeddings.RECOMMENDED_PROJECTION_CACHE_SIZE, precision);
+
+			// Tag twice, so that the second round is measured after JIT compilation. The projection cache is warm in
+			// the second round too, as it would be when tagging a large file.
+			List<List<ScoredCategory>> tags = null;
+			long nanos = 0;
+			for (int round = 0; round < 2; round++) {
+				final long start = System.nanoTime();
+				tags = tagger.tagBatch(sentences.stream()).flatMap(List::stream).collect(Collectors.toList());
+				nanos = System.nanoTime() - start;
+			}
+
+			if (baseline == null) {
+				baseline = tags;
+			}
+
+			print(precision, tagger.getParameterBytes(), nanos, tags, baseline, goldCategories);
+		}
+	}
+
+	private static void print(final Precision precision, final long bytes, final long nanos,
+			final List<List<ScoredCategory>> tags, final List<List<ScoredCategory>> baseline,
+			final List<Category> goldCategories) {
+		int correct = 0;
+		int agree = 0;
+		int totalTags = 0;
+		double totalScoreDifference = 0.0;
+		double maxScoreDifference = 0.0;
+		for (int i = 0; i < tags.size(); i++) {
+			final ScoredCategory best = tags.get(i).get(0);
+			final ScoredCategory baselineBest = baseline.get(i).get(0);
+			if (best.getCategory().equals(goldCategories.get(i))) {
+				correct++;
+			}
+			if (best.getCategory().equals(baselineBest.getCategory())) {
+				agree++;
+			}
+
+			final double scoreDifference = Math.abs(best.getScore() - baselineBest.getScore());
+			totalScoreDifference += scoreDifference;
+			maxScoreDifference = Math.max(maxScoreDifference, scoreDifference);
+			totalTags += tags.get(i).size();
+		}
+
+		final int words = tags.size();
+		System.out.println(String.format(
+				"%-6s %8.1f MB %8.0f words/sec  accuracy %6.2f%%  agreement %6.2f%%  tags/word %5.2f  "
+						+ "1-best score difference: mean %.2e max %.2e",
+				precision, bytes / 1e6, words / (nanos / 1e9), 100.0 * correct / words, 100.0 * agree / words,
+				(double) totalTags / words, totalScoreDifference / words, maxScoreDifference));
+	}
+}
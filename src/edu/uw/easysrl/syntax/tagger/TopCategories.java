@@ -0,0 +1,138 @@
+package edu.uw.easysrl.syntax.tagger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import edu.uw.easysrl.syntax.grammar.Category;
+import edu.uw.easysrl.syntax.tagger.Tagger.ScoredCategory;
+
+/**
+ * Chooses the best categories for a word from its scores. The candidates are selected with a bounded heap over
+ * primitive arrays, rather than by sorting them all, and only the chosen categories become ScoredCategory objects.
+ *
+ * Each thread reuses the same instance (see {@link #forCurrentThread()}), so the arrays only need to grow once.
+ */
+class TopCategories {
+	private static final ThreadLocal<TopCategories> selectorForThread = ThreadLocal.withInitial(TopCategories::new);
+
+	/**
+	 * Scores of the possible categories, in the order they're listed.
+	 */
+	private double[] scores = new double[0];
+
+	/**
+	 * Min-heap of indices into the possible categories, with the worst of the best candidates at the root.
+	 */
+	private int[] heap = new int[0];
+	private int heapSize;
+
+	static TopCategories forCurrentThread() {
+		return selectorForThread.get();
+	}
+
+	/**
+	 * Returns the highest-scoring of the possible categories, best first, with ties in the order they're listed. At
+	 * most maxTags are returned. After the first 2, categories whose probability is less than beta times the best
+	 * probability are cut off, which is checked in log space.
+	 *
+	 * @param allScores
+	 *            Scores for every category
+	 * @param offset
+	 *            The position of the word's first score in allScores.
+	 */
+	List<ScoredCategory> select(final double[] allScores, final int offset, final int[] possibleCategories,
+			final int maxTags, final double logBeta, final List<Category> lexicalCategories) {
+		final int candidates = possibleCategories.length;
+		if (scores.length < candidates) {
+			scores = new double[candidates];
+			heap = new int[candidates];
+		}
+
+		double bestScore = 0.0;
+		for (int i = 0; i < candidates; i++) {
+			final double score = allScores[offset + possibleCategories[i]];
+			scores[i] = score;
+			bestScore = Math.max(bestScore, score);
+		}
+
+		// The categories above the threshold are a prefix of the sorted list, so it's enough to count them.
+		final double threshold = logBeta + bestScore;
+		int aboveThreshold = 0;
+		for (int i = 0; i < candidates; i++) {
+			if (scores[i] >= threshold) {
+				aboveThreshold++;
+			}
+		}
+
+		final int size = Math.min(Math.min(maxTags, candidates), Math.max(2, aboveThreshold));
+		if (size <= 0) {
+			return Collections.emptyList();
+		}
+
+		heapSize = 0;
+		for (int i = 0; i < candidates; i++) {
+			if (heapSize < size) {
+				heap[heapSize] = i;
+				heapSize++;
+				siftUp(heapSize - 1);
+			} else if (isBetter(i, heap[0])) {
+				heap[0] = i;
+				siftDown(0);
+			}
+		}
+
+		// Popping the heap gives the worst first.
+		final ScoredCategory[] result = new ScoredCategory[size];
+		for (int i = size - 1; i >= 0; i--) {
+			final int best = heap[0];
+			result[i] = new ScoredCategory(lexicalCategories.get(possibleCategories[best]), scores[best]);
+			heapSize--;
+			heap[0] = heap[heapSize];
+			siftDown(0);
+		}
+
+		return new ArrayList<>(Arrays.asList(result));
+	}
+
+	/**
+	 * Higher scores are better, and ties go to the category listed first (as in a stable sort).
+	 */
+	private boolean isBetter(final int a, final int b) {
+		final int comparison = Double.compare(scores[a], scores[b]);
+		return comparison > 0 || (comparison == 0 && a < b);
+	}
+
+	private void siftUp(int index) {
+		final int item = heap[index];
+		while (index > 0) {
+			final int parent = (index - 1) >>> 1;
+			if (!isBetter(heap[parent], item)) {
+				break;
+			}
+			heap[index] = heap[parent];
+			index = parent;
+		}
+		heap[index] = item;
+	}
+
+	private void siftDown(int index) {
+		final int item = heap[index];
+		while (true) {
+			int child = 2 * index + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && isBetter(heap[child], heap[child + 1])) {
+				child++;
+			}
+			if (!isBetter(item, heap[child])) {
+				break;
+			}
+			heap[index] = heap[child];
+			index = child;
+		}
+		heap[index] = item;
+	}
+}
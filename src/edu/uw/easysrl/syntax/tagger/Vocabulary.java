@@ -0,0 +1,73 @@
+package edu.uw.easysrl.syntax.tagger;
+
+import java.util.List;
+
+/**
+ * Maps words to rows of an embedding table, using open addressing with linear probing. Words can be looked up with any
+ * CharSequence, such as a reused StringBuilder, so that looking up a word doesn't need a new String.
+ */
+class Vocabulary {
+	private final String[] keys;
+	private final int[] rows;
+	private final int mask;
+	private final int size;
+
+	/**
+	 * The row of each word is its index in the list. The words must be distinct.
+	 */
+	Vocabulary(final List<String> words) {
+		// Keep the table at most half full, so that probe sequences stay short.
+		int capacity = 2;
+		while (capacity < 2 * words.size()) {
+			capacity *= 2;
+		}
+
+		this.keys = new String[capacity];
+		this.rows = new int[capacity];
+		this.mask = capacity - 1;
+		this.size = words.size();
+		for (int row = 0; row < words.size(); row++) {
+			final String word = words.get(row);
+			int slot = hash(word) & mask;
+			while (keys[slot] != null) {
+				if (keys[slot].equals(word)) {
+					throw new IllegalArgumentException("Duplicate word in vocabulary: " + word);
+				}
+				slot = (slot + 1) & mask;
+			}
+
+			keys[slot] = word;
+			rows[slot] = row;
+		}
+	}
+
+	/**
+	 * The word's row, or -1 if it isn't in the vocabulary.
+	 */
+	int get(final CharSequence word) {
+		int slot = hash(word) & mask;
+		while (keys[slot] != null) {
+			if (keys[slot].contentEquals(word)) {
+				return rows[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private static int hash(final CharSequence word) {
+		int result = 0;
+		for (int i = 0; i < word.length(); i++) {
+			result = 31 * result + word.charAt(i);
+		}
+
+		// Spread the high bits into the low bits, which are used to pick the slot.
+		result *= 0x9e3779b9;
+		return result ^ (result >>> 16);
+	}
+}
@@ -0,0 +1,353 @@
+package edu.uw.easysrl.syntax.tagger;
+
+import java.nio.FloatBuffer;
+
+import edu.uw.easysrl.syntax.tagger.TaggerEmbeddings.Precision;
+
+/**
+ * A dense matrix of weights for TaggerEmbeddings, stored row by row as doubles, floats or bytes. The bytes version
+ * stores each value as an integer from -127 to 127, scaled by the largest absolute value in its row. Matrices can also
+ * be read directly from a FloatBuffer, such as a memory-mapped BinaryTaggerModel.
+ */
+abstract class WeightMatrix {
+	final int rows;
+	final int columns;
+
+	private WeightMatrix(final int rows, final int columns) {
+		this.rows = rows;
+		this.columns = columns;
+	}
+
+	static WeightMatrix make(final int rows, final int columns, final Precision precision) {
+		switch (precision) {
+		case DOUBLE:
+			return new DoubleWeightMatrix(rows, columns);
+		case FLOAT:
+			return new FloatWeightMatrix(rows, columns);
+		case INT8:
+			return new Int8WeightMatrix(rows, columns);
+		default:
+			throw new IllegalArgumentException("Unknown precision: " + precision);
+		}
+	}
+
+	/**
+	 * A read-only matrix, backed by the floats in the buffer.
+	 */
+	static WeightMatrix wrap(final FloatBuffer data, final int rows, final int columns) {
+		return new FloatBufferWeightMatrix(data, rows, columns);
+	}
+
+	/**
+	 * Copies the matrix, with the given precision.
+	 */
+	static WeightMatrix copyOf(final WeightMatrix matrix, final Precision precision) {
+		final WeightMatrix result = make(matrix.rows, matrix.columns, precision);
+		final double[] values = new double[matrix.columns];
+		for (int row = 0; row < matrix.rows; row++) {
+			matrix.copyRow(row, values, 0);
+			result.setRow(row, values);
+		}
+
+		return result;
+	}
+
+	abstract void setRow(int row, double[] values);
+
+	abstract double get(int row, int column);
+
+	/**
+	 * Copies a row into the vector, starting at the given offset, and returns the next index in the vector.
+	 */
+	abstract int copyRow(int row, double[] vector, int offset);
+
+	/**
+	 * Dot product of part of a row, starting at the given column, with part of a vector.
+	 */
+	abstract double dot(int row, int column, double[] vector, int offset, int length);
+
+	/**
+	 * Dot products of a whole row with 4 vectors, which start at the given offsets. The results are written to the
+	 * first 4 elements of result.
+	 */
+	abstract void dot4(int row, double[] vectors, int offset0, int offset1, int offset2, int offset3,
+			double[] result);
+
+	/**
+	 * Approximate memory used by the weights, in bytes.
+	 */
+	abstract long getBytes();
+
+	private static class DoubleWeightMatrix extends WeightMatrix {
+		private final double[] data;
+
+		private DoubleWeightMatrix(final int rows, final int columns) {
+			super(rows, columns);
+			this.data = new double[rows * columns];
+		}
+
+		@Override
+		void setRow(final int row, final double[] values) {
+			System.arraycopy(values, 0, data, row * columns, columns);
+		}
+
+		@Override
+		double get(final int row, final int column) {
+			return data[row * columns + column];
+		}
+
+		@Override
+		int copyRow(final int row, final double[] vector, final int offset) {
+			System.arraycopy(data, row * columns, vector, offset, columns);
+			return offset + columns;
+		}
+
+		@Override
+		double dot(final int row, final int column, final double[] vector, final int offset, final int length) {
+			final int start = row * columns + column;
+			double result = 0.0;
+			for (int i = 0; i < length; i++) {
+				result += data[start + i] * vector[offset + i];
+			}
+			return result;
+		}
+
+		@Override
+		void dot4(final int row, final double[] vectors, final int offset0, final int offset1, final int offset2,
+				final int offset3, final double[] result) {
+			final int start = row * columns;
+			double score0 = 0.0;
+			double score1 = 0.0;
+			double score2 = 0.0;
+			double score3 = 0.0;
+			for (int i = 0; i < columns; i++) {
+				final double weight = data[start + i];
+				score0 += weight * vectors[offset0 + i];
+				score1 += weight * vectors[offset1 + i];
+				score2 += weight * vectors[offset2 + i];
+				score3 += weight * vectors[offset3 + i];
+			}
+			result[0] = score0;
+			result[1] = score1;
+			result[2] = score2;
+			result[3] = score3;
+		}
+
+		@Override
+		long getBytes() {
+			return 8L * data.length;
+		}
+	}
+
+	private static class FloatWeightMatrix extends WeightMatrix {
+		private final float[] data;
+
+		private FloatWeightMatrix(final int rows, final int columns) {
+			super(rows, columns);
+			this.data = new float[rows * columns];
+		}
+
+		@Override
+		void setRow(final int row, final double[] values) {
+			final int start = row * columns;
+			for (int i = 0; i < columns; i++) {
+				data[start + i] = (float) values[i];
+			}
+		}
+
+		@Override
+		double get(final int row, final int column) {
+			return data[row * columns + column];
+		}
+
+		@Override
+		int copyRow(final int row, final double[] vector, final int offset) {
+			final int start = row * columns;
+			for (int i = 0; i < columns; i++) {
+				vector[offset + i] = data[start + i];
+			}
+			return offset + columns;
+		}
+
+		@Override
+		double dot(final int row, final int column, final double[] vector, final int offset, final int length) {
+			final int start = row * columns + column;
+			double result = 0.0;
+			for (int i = 0; i < length; i++) {
+				result += data[start + i] * vector[offset + i];
+			}
+			return result;
+		}
+
+		@Override
+		void dot4(final int row, final double[] vectors, final int offset0, final int offset1, final int offset2,
+				final int offset3, final double[] result) {
+			final int start = row * columns;
+			double score0 = 0.0;
+			double score1 = 0.0;
+			double score2 = 0.0;
+			double score3 = 0.0;
+			for (int i = 0; i < columns; i++) {
+				final double weight = data[start + i];
+				score0 += weight * vectors[offset0 + i];
+				score1 += weight * vectors[offset1 + i];
+				score2 += weight * vectors[offset2 + i];
+				score3 += weight * vectors[offset3 + i];
+			}
+			result[0] = score0;
+			result[1] = score1;
+			result[2] = score2;
+			result[3] = score3;
+		}
+
+		@Override
+		long getBytes() {
+			return 4L * data.length;
+		}
+	}
+
+	private static class FloatBufferWeightMatrix extends WeightMatrix {
+		private final FloatBuffer data;
+
+		private FloatBufferWeightMatrix(final FloatBuffer data, final int rows, final int columns) {
+			super(rows, columns);
+			this.data = data;
+		}
+
+		@Override
+		void setRow(final int row, final double[] values) {
+			throw new UnsupportedOperationException("Matrix is read-only");
+		}
+
+		@Override
+		double get(final int row, final int column) {
+			return data.get(row * columns + column);
+		}
+
+		@Override
+		int copyRow(final int row, final double[] vector, final int offset) {
+			final int start = row * columns;
+			for (int i = 0; i < columns; i++) {
+				vector[offset + i] = data.get(start + i);
+			}
+			return offset + columns;
+		}
+
+		@Override
+		double dot(final int row, final int column, final double[] vector, final int offset, final int length) {
+			final int start = row * columns + column;
+			double result = 0.0;
+			for (int i = 0; i < length; i++) {
+				result += data.get(start + i) * vector[offset + i];
+			}
+			return result;
+		}
+
+		@Override
+		void dot4(final int row, final double[] vectors, final int offset0, final int offset1, final int offset2,
+				final int offset3, final double[] result) {
+			final int start = row * columns;
+			double score0 = 0.0;
+			double score1 = 0.0;
+			double score2 = 0.0;
+			double score3 = 0.0;
+			for (int i = 0; i < columns; i++) {
+				final double weight = data.get(start + i);
+				score0 += weight * vectors[offset0 + i];
+				score1 += weight * vectors[offset1 + i];
+				score2 += weight * vectors[offset2 + i];
+				score3 += weight * vectors[offset3 + i];
+			}
+			result[0] = score0;
+			result[1] = score1;
+			result[2] = score2;
+			result[3] = score3;
+		}
+
+		/**
+		 * The floats are counted, though if the buffer is memory-mapped they're in the page cache rather than the heap.
+		 */
+		@Override
+		long getBytes() {
+			return 4L * rows * columns;
+		}
+	}
+
+	private static class Int8WeightMatrix extends WeightMatrix {
+		private final byte[] data;
+		private final double[] scales;
+
+		private Int8WeightMatrix(final int rows, final int columns) {
+			super(rows, columns);
+			this.data = new byte[rows * columns];
+			this.scales = new double[rows];
+		}
+
+		@Override
+		void setRow(final int row, final double[] values) {
+			double max = 0.0;
+			for (int i = 0; i < columns; i++) {
+				max = Math.max(max, Math.abs(values[i]));
+			}
+
+			final double scale = max / 127;
+			scales[row] = scale;
+			final int start = row * columns;
+			for (int i = 0; i < columns; i++) {
+				data[start + i] = scale == 0.0 ? 0 : (byte) Math.round(values[i] / scale);
+			}
+		}
+
+		@Override
+		double get(final int row, final int column) {
+			return data[row * columns + column] * scales[row];
+		}
+
+		@Override
+		int copyRow(final int row, final double[] vector, final int offset) {
+			final int start = row * columns;
+			final double scale = scales[row];
+			for (int i = 0; i < columns; i++) {
+				vector[offset + i] = data[start + i] * scale;
+			}
+			return offset + columns;
+		}
+
+		@Override
+		double dot(final int row, final int column, final double[] vector, final int offset, final int length) {
+			final int start = row * columns + column;
+			double result = 0.0;
+			for (int i = 0; i < length; i++) {
+				result += data[start + i] * vector[offset + i];
+			}
+			return result * scales[row];
+		}
+
+		@Override
+		void dot4(final int row, final double[] vectors, final int offset0, final int offset1, final int offset2,
+				final int offset3, final double[] result) {
+			final int start = row * columns;
+			double score0 = 0.0;
+			double score1 = 0.0;
+			double score2 = 0.0;
+			double score3 = 0.0;
+			for (int i = 0; i < columns; i++) {
+				final double weight = data[start + i];
+				score0 += weight * vectors[offset0 + i];
+				score1 += weight * vectors[offset1 + i];
+				score2 += weight * vectors[offset2 + i];
+				score3 += weight * vectors[offset3 + i];
+			}
+			final double scale = scales[row];
+			result[0] = score0 * scale;
+			result[1] = score1 * scale;
+			result[2] = score2 * scale;
+			result[3] = score3 * scale;
+		}
+
+		@Override
+		long getBytes() {
+			return data.length + 8L * scales.length;
+		}
+	}
+}
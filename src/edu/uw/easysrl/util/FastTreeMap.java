@@ -70,6 +70,16 @@ public class FastTreeMap<Key, Value> {
 		return size;
 	}
 
+	/**
+	 * Removes all the elements, so that the map can be reused.
+	 */
+	public void clear() {
+		root = EMPTY;
+		first.nextNode = null;
+		last = first;
+		size = 0;
+	}
+
 	/** Returns null if not found. */
 	public Value get(final Key key) {
 		final Node<Key, Value> n = root.getNode(key);
@@ -325,6 +325,16 @@ public class Util {
 		}
 	}
 
+	/**
+	 * Scrambles the bits of a long, so that similar inputs give very different outputs (the SplitMix64 finalizer). Useful
+	 * for building 64-bit fingerprints out of 32-bit hash codes.
+	 */
+	public static long mix64(long x) {
+		x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+		x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+		return x ^ (x >>> 31);
+	}
+
 	public static double[] subtract(final double[] vector1, final double[] vector2) {
 		assert (vector1.length == vector2.length);
 		final double[] result = new double[vector1.length];